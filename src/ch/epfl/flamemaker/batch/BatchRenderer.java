@@ -0,0 +1,252 @@
+package ch.epfl.flamemaker.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ch.epfl.flamemaker.color.Color;
+import ch.epfl.flamemaker.color.PaletteTable;
+import ch.epfl.flamemaker.flame.Flame;
+import ch.epfl.flamemaker.flame.FlameAccumulator;
+import ch.epfl.flamemaker.flame.FlameDocument;
+import ch.epfl.flamemaker.flame.FlameLibrary;
+import ch.epfl.flamemaker.flame.FlameLibraryFormat;
+import ch.epfl.flamemaker.flame.FlamePNGMaker;
+import ch.epfl.flamemaker.flame.FlamePPMMaker;
+import ch.epfl.flamemaker.flame.RenderCache;
+import ch.epfl.flamemaker.flame.ToneMap;
+import ch.epfl.flamemaker.geometry2d.Rectangle;
+
+/**
+ * <p>La classe <code>BatchRenderer</code> calcule en ligne de commande, sans interface graphique, toutes les fractales d'une bibliotheque.</p>
+ * <p>Usage : <code>java ch.epfl.flamemaker.batch.BatchRenderer [options] source...</code> <br />
+ * ou chaque source est une bibliotheque de fractales ecrite par l'interface graphique (p.ex. <code>flamelist.sav</code>), au format binaire, texte ou serialise, ou un dossier contenant de tels fichiers (<code>*.sav</code>). <br />
+ * Options : <br />
+ * <code>-w</code> largeur (800), <code>-h</code> hauteur (600), <code>-d</code> densite (50), <br />
+ * <code>-j</code> nombre de fractales calculees en meme temps (nombre de processeurs), <br />
+ * <code>-f</code> format <code>png</code> ou <code>ppm</code> (png), <code>-o</code> dossier de sortie (dossier courant), <br />
+ * <code>-c</code> dossier du cache des accumulateurs (aucun) : une fractale deja calculee avec les memes reglages y est relue au lieu d'etre recalculee, <br />
+ * <code>-m</code> memoire en Mo reservee aux accumulateurs deja calcules (64 avec <code>-c</code>, aucune sinon) : les fractales identiques ne sont alors calculees qu'une fois.</p>
+ * <p>Chaque fractale est ecrite dans un fichier nomme d'apres son numero et son nom, et son temps de calcul et d'ecriture est affiche.
+ * Aucune classe Swing n'est chargee : le programme fonctionne sur une machine sans affichage.</p>
+ * @see FlameLibraryFormat#read(File)
+ */
+public final class BatchRenderer {
+	/**
+	 * L'extension des fichiers de fractales lus dans les dossiers sources.
+	 */
+	private static final String LIBRARY_EXTENSION = ".sav";
+	
+	private int width = 800, height = 600, density = 50;
+	private int jobs = Runtime.getRuntime().availableProcessors();
+	private String format = "png";
+	private File outputDirectory = new File(".");
+	private File cacheDirectory;
+	private long memoryBudget;
+	private RenderCache cache;
+	private final List<File> sources = new ArrayList<File>();
+
+	public static void main(String[] args) {
+		BatchRenderer renderer = new BatchRenderer();
+		try {
+			renderer.parse(args);
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage : BatchRenderer [-w largeur] [-h hauteur] [-d densite] [-j fractales en parallele] [-f png|ppm] [-o dossier] [-c cache] [-m memoire en Mo] source...");
+			System.exit(2);
+		}
+		System.exit(renderer.run() ? 0 : 1);
+	}
+
+	/**
+	 * Lit les arguments de la ligne de commande.
+	 * @param args les arguments.
+	 * @throws IllegalArgumentException si un argument n'est pas valide.
+	 */
+	void parse(String[] args) {
+		for(int i=0; i<args.length; i++) {
+			String arg = args[i];
+			if(arg.startsWith("-") && arg.length() == 2) {
+				if(i+1 >= args.length)
+					throw new IllegalArgumentException("Valeur manquante pour l'option " + arg + " !");
+				String value = args[++i];
+				switch(arg.charAt(1)) {
+					case 'w':
+						width = positive(arg, value);
+						break;
+					case 'h':
+						height = positive(arg, value);
+						break;
+					case 'd':
+						density = positive(arg, value);
+						break;
+					case 'j':
+						jobs = positive(arg, value);
+						break;
+					case 'f':
+						if(!value.equals("png") && !value.equals("ppm"))
+							throw new IllegalArgumentException("Format inconnu : " + value + " !");
+						format = value;
+						break;
+					case 'o':
+						outputDirectory = new File(value);
+						break;
+					case 'c':
+						cacheDirectory = new File(value);
+						break;
+					case 'm':
+						memoryBudget = positive(arg, value) * (1L << 20);
+						break;
+					default:
+						throw new IllegalArgumentException("Option inconnue : " + arg + " !");
+				}
+			}
+			else {
+				sources.add(new File(arg));
+			}
+		}
+		if(sources.isEmpty())
+			throw new IllegalArgumentException("Aucune source a calculer !");
+	}
+
+	private static int positive(String option, String value) {
+		try {
+			int n = Integer.parseInt(value);
+			if(n > 0)
+				return n;
+		} catch(NumberFormatException e) {
+			// Traite ci-dessous
+		}
+		throw new IllegalArgumentException("L'option " + option + " attend un entier strictement positif, pas " + value + " !");
+	}
+
+	/**
+	 * Lit toutes les sources et calcule leurs fractales, au plus <code>jobs</code> a la fois.
+	 * @return <code>true</code> si toutes les fractales ont pu etre calculees et ecrites.
+	 */
+	boolean run() {
+		List<FlameLibrary> libraries = new ArrayList<FlameLibrary>();
+		boolean ok = true;
+		for(File source : sources) {
+			for(File file : libraryFiles(source)) {
+				try {
+					// Seul l'index est lu ici : chaque fractale est decodee par le fil qui la calcule
+					libraries.add(FlameLibrary.open(file, 0));
+				} catch(IOException e) {
+					System.err.println("Impossible de lire " + file + " : " + e.getMessage());
+					ok = false;
+				}
+			}
+		}
+		if(!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+			System.err.println("Impossible de creer le dossier " + outputDirectory + " !");
+			return false;
+		}
+
+		// Sans -c ni -m, aucun cache : chaque accumulateur est libere des que son image est ecrite
+		if(cacheDirectory != null || memoryBudget > 0) {
+			try {
+				cache = new RenderCache(memoryBudget > 0 ? memoryBudget : RenderCache.DEFAULT_MEMORY_BUDGET, cacheDirectory);
+			} catch(IllegalArgumentException e) {
+				System.err.println(e.getMessage());
+				return false;
+			}
+		}
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(jobs);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			List<String> names = new ArrayList<String>();
+			for(final FlameLibrary library : libraries) {
+				for(int i=0; i<library.size(); i++) {
+					final int number = i;
+					final File output = new File(outputDirectory, String.format("%03d-%s.%s", names.size()+1, fileName(library.name(i)), format));
+					names.add(library.name(i));
+					results.add(executor.submit(new Callable<String>() {
+						@Override
+						public String call() throws IOException {
+							return render(library.document(number), output);
+						}
+					}));
+				}
+			}
+			for(int i=0; i<results.size(); i++) {
+				try {
+					System.out.println(results.get(i).get());
+				} catch(ExecutionException e) {
+					System.err.println(names.get(i) + " : echec (" + e.getCause() + ")");
+					ok = false;
+				}
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		int count = 0;
+		for(FlameLibrary library : libraries) {
+			count += library.size();
+		}
+		System.out.println(count + " fractale(s) en " + (System.nanoTime() - start)/1000000 + " ms");
+		if(cache != null && cache.diskErrors() > 0) {
+			System.err.println(cache.diskErrors() + " accumulateur(s) n'ont pas pu etre ecrits dans " + cacheDirectory + " (" + cache.lastDiskError().getMessage() + ")");
+		}
+		return ok;
+	}
+
+	/**
+	 * Calcule une fractale et l'ecrit dans le fichier donne.
+	 * @return une ligne decrivant le resultat et les temps de calcul et d'ecriture.
+	 */
+	private String render(FlameDocument flame, File output) throws IOException {
+		long start = System.nanoTime();
+		Rectangle frame = flame.getFrame().expandToAspectRatio(width/(double) height);
+		// Un seul fil par fractale : ce sont les fractales qui sont calculees en parallele
+		FlameAccumulator acc = cache == null
+				? flame.toFlame().compute(frame, width, height, density, 1, Flame.DEFAULT_SEED)
+				: cache.compute(flame.toFlame(), frame, width, height, density, 1, Flame.DEFAULT_SEED);
+		long computed = System.nanoTime();
+		PaletteTable table = flame.getPalette().bake(PaletteTable.DEFAULT_SIZE);
+		if(format.equals("png"))
+			FlamePNGMaker.writePNG(acc, ToneMap.DEFAULT, table, Color.BLACK, 1, output);
+		else
+			FlamePPMMaker.writePPM(acc, ToneMap.DEFAULT, table, Color.BLACK, 255, output);
+		long written = System.nanoTime();
+		return flame.getName() + " -> " + output + " : calcul " + (computed - start)/1000000 + " ms, ecriture " + (written - computed)/1000000 + " ms";
+	}
+
+	/**
+	 * Retourne les fichiers de la source : la source elle-meme si c'est un fichier, ses fichiers <code>{@value #LIBRARY_EXTENSION}</code> (par ordre alphabetique) si c'est un dossier.
+	 */
+	private static List<File> libraryFiles(File source) {
+		if(!source.isDirectory())
+			return Arrays.asList(source);
+		File[] files = source.listFiles();
+		List<File> result = new ArrayList<File>();
+		if(files != null) {
+			Arrays.sort(files);
+			for(File file : files) {
+				if(file.isFile() && file.getName().endsWith(LIBRARY_EXTENSION))
+					result.add(file);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Retourne le nom donne, sans les caracteres qui poseraient probleme dans un nom de fichier.
+	 */
+	static String fileName(String name) {
+		String cleaned = name == null ? "" : name.replaceAll("[^A-Za-z0-9_-]+", "_");
+		return cleaned.isEmpty() ? "flame" : cleaned;
+	}
+}
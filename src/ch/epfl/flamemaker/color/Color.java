@@ -14,6 +14,7 @@ public final class Color implements Serializable {
 	public static final Color RED = new Color(1,0,0);
 	public static final Color BLUE = new Color(0,0,1);
 	public static final Color GREEN = new Color(0,1,0);
+	private static final SRGBTable SRGB_255 = SRGBTable.forMax(255);
 	
 	private final double r, g, b;
 	
@@ -78,23 +79,73 @@ public final class Color implements Serializable {
 	 * @return la valeur <code>int</code> des 3 composantes de la couleur concatenees.
 	 */
 	public int asPackedRGB() {
+		return packRGB(r, g, b);
+	}
+	
+	/**
+	 * Comme <code>{@link Color#asPackedRGB() asPackedRGB()}</code>, mais pour les composantes donnees, sans creer d'objet <code>Color</code>.
+	 * @param r la composante rouge, entre 0 et 1.
+	 * @param g la composante verte, entre 0 et 1.
+	 * @param b la composante bleue, entre 0 et 1.
+	 * @return la valeur <code>int</code> des 3 composantes encodees en sRGB et concatenees.
+	 */
+	public static int packRGB(double r, double g, double b) {
 		return ((sRGBEncode(r, 255) << 16) | (sRGBEncode(g,255) << 8) | sRGBEncode(b, 255));
 	}
 	
 	/**
-	 * Encode la composante de couleur en norme sRGB et renvoie celle-ci sous forme d'un entier entre 0 et max 
+	 * Encode d'un coup <code>n</code> couleurs donnees par leurs composantes lineaires, et ecrit leur forme "packed" dans <code>packed[offset]</code> a <code>packed[offset+n-1]</code>. <br />
+	 * Le resultat est le meme que celui de <code>{@link Color#packRGB(double, double, double) packRGB(r[i], g[i], b[i])}</code> pour chaque couleur <code>i</code>.
+	 * @param r les composantes rouges, entre 0 et 1.
+	 * @param g les composantes vertes, entre 0 et 1.
+	 * @param b les composantes bleues, entre 0 et 1.
+	 * @param packed le tableau dans lequel on ecrit les couleurs encodees.
+	 * @param offset l'index de <code>packed</code> a partir duquel on ecrit.
+	 * @param n le nombre de couleurs a encoder.
+	 * @throws IndexOutOfBoundsException si l'un des tableaux est trop court.
+	 */
+	public static void packRGB(double[] r, double[] g, double[] b, int[] packed, int offset, int n) {
+		if(n < 0 || offset < 0 || n > r.length || n > g.length || n > b.length || offset + n > packed.length)
+			throw new IndexOutOfBoundsException("Les tableaux sont trop courts !");
+		for(int i=0; i<n; i++) {
+			packed[offset+i] = (sRGBEncode(r[i], 255) << 16) | (sRGBEncode(g[i], 255) << 8) | sRGBEncode(b[i], 255);
+		}
+	}
+	
+	/**
+	 * Encode la composante de couleur en norme sRGB et renvoie celle-ci sous forme d'un entier entre 0 et max <br />
+	 * Pour une composante entre 0 et 1, le resultat est lu dans une table (<code>{@link SRGBTable}</code>), construite au premier appel pour chaque valeur de max.
 	 * @param v la valeur de la composante, entre 0 et 1
 	 * @param max la valeur maximale pour la composante
 	 * @return un <code>int</code> entre 0 et <code>max</code> qui represente la composante encodee en sRGB
 	 */
 	public static int sRGBEncode(double v,int max)
 	{
-		if ( v <= 0.0031308)
-			v = 12.92*v;
-		else
-			v = (1.055*Math.pow(v, 1/2.4))-0.055;
-		
-		return (int)(v*max);
+		if(v >= 0 && v <= 1) {
+			if(max == 255)
+				return SRGB_255.encode(v);
+			if(max >= 1 && max <= SRGBTable.MAX_TABLE_MAX)
+				return SRGBTable.forMax(max).encode(v);
+		}
+		return SRGBTable.formula(v, max);
+	}
+	
+	/**
+	 * Encode d'un coup les <code>n</code> premieres composantes de <code>values</code> comme <code>{@link Color#sRGBEncode(double, int)}</code>, et ecrit le resultat dans <code>encoded</code>.
+	 * @param values les valeurs des composantes, entre 0 et 1.
+	 * @param max la valeur maximale pour une composante encodee.
+	 * @param encoded le tableau dans lequel on ecrit les composantes encodees.
+	 * @param n le nombre de composantes a encoder.
+	 * @throws IndexOutOfBoundsException si l'un des tableaux est trop court.
+	 */
+	public static void sRGBEncode(double[] values, int max, int[] encoded, int n) {
+		if(n < 0 || n > values.length || n > encoded.length)
+			throw new IndexOutOfBoundsException("Les tableaux sont trop courts !");
+		SRGBTable table = max == 255 ? SRGB_255 : (max >= 1 && max <= SRGBTable.MAX_TABLE_MAX) ? SRGBTable.forMax(max) : null;
+		for(int i=0; i<n; i++) {
+			double v = values[i];
+			encoded[i] = (table != null && v >= 0 && v <= 1) ? table.encode(v) : SRGBTable.formula(v, max);
+		}
 	}
 	
 	@Override
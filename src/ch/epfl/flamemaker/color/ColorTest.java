@@ -0,0 +1,61 @@
+package ch.epfl.flamemaker.color;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ColorTest {
+	@Test
+	public void testSRGBEncodeMatchesFormula() {
+		Random random = new Random(2013);
+		for(int max : new int[] { 1, 100, 255, 65535 }) {
+			for(int i=0; i<100000; i++) {
+				double v = random.nextDouble();
+				// Beaucoup de valeurs proches de 0, la ou les niveaux sont les plus serres
+				if(i % 2 == 0)
+					v *= 0.01;
+				assertEquals(SRGBTable.formula(v, max), Color.sRGBEncode(v, max));
+			}
+			assertEquals(SRGBTable.formula(0, max), Color.sRGBEncode(0, max));
+			assertEquals(SRGBTable.formula(1, max), Color.sRGBEncode(1, max));
+			assertEquals(SRGBTable.formula(0.0031308, max), Color.sRGBEncode(0.0031308, max));
+		}
+	}
+
+	@Test
+	public void testSRGBEncodeAroundLevelChanges() {
+		// Le plus petit v encode en k, et son predecesseur encode en k-1
+		for(int k=1; k<=255; k++) {
+			double low = 0, high = 1;
+			for(int i=0; i<100; i++) {
+				double middle = (low + high)/2;
+				if(SRGBTable.formula(middle, 255) >= k)
+					high = middle;
+				else
+					low = middle;
+			}
+			assertEquals(SRGBTable.formula(high, 255), Color.sRGBEncode(high, 255));
+			assertEquals(SRGBTable.formula(Math.nextDown(high), 255), Color.sRGBEncode(Math.nextDown(high), 255));
+			assertEquals(SRGBTable.formula(Math.nextUp(high), 255), Color.sRGBEncode(Math.nextUp(high), 255));
+		}
+	}
+
+	@Test
+	public void testBulkPackRGB() {
+		double[] r = { 0, 1, 0.5 }, g = { 0, 0.25, 0.002 }, b = { 0, 0, 0.75 };
+		int[] packed = new int[5];
+		Color.packRGB(r, g, b, packed, 1, 3);
+		assertEquals(0, packed[0]);
+		for(int i=0; i<3; i++) {
+			assertEquals(new Color(r[i], g[i], b[i]).asPackedRGB(), packed[i+1]);
+		}
+		assertEquals(0, packed[4]);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testBulkPackRGBRejectsShortArray() {
+		Color.packRGB(new double[3], new double[3], new double[3], new int[3], 1, 3);
+	}
+}
@@ -1,6 +1,7 @@
 package ch.epfl.flamemaker.color;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 /**
  * La classe <code>InterpolatedPalette</code> interpole entre plusieurs couleurs. <br />
@@ -49,6 +50,14 @@ public class InterpolatedPalette implements Palette, Serializable {
 		}
 	}
 
+	/**
+	 * Retourne la liste des couleurs interpolees par la palette, dans l'ordre.
+	 * @return la liste des couleurs, non modifiable.
+	 */
+	public List<Color> colors() {
+		return Collections.unmodifiableList(colorList);
+	}
+
 	public static InterpolatedPalette generateRGBPal() {
 		List<Color> rgbColorList = new ArrayList<Color>();
 		rgbColorList.add(new Color(1, 0, 0));
@@ -10,5 +10,18 @@ public interface Palette {
 	 * @see Color
 	 */
 	public Color colorForIndex(double index);
+	
+	/**
+	 * Retourne la palette "cuite" en une table de <code>size</code> couleurs, a utiliser pour colorier une image entiere. <br />
+	 * Par defaut, la table echantillonne <code>{@link Palette#colorForIndex(double)}</code> : une palette n'a a redefinir cette methode que si elle peut faire mieux.
+	 * @param size le nombre d'entrees de la table, p.ex. <code>{@value PaletteTable#DEFAULT_SIZE}</code>.
+	 * @throws IllegalArgumentException si la table a moins de deux entrees.
+	 * @return la table de la palette.
+	 * @see PaletteTable
+	 */
+	public default PaletteTable bake(int size) {
+		return new PaletteTable(this, size);
+	}
+	
 	public Palette clone();
 }
@@ -0,0 +1,85 @@
+package ch.epfl.flamemaker.color;
+
+/**
+ * <p>La classe <code>PaletteTable</code> est une palette "cuite" : une table de <code>size</code> couleurs echantillonnees a intervalles reguliers sur une <code>{@link Palette}</code>.</p>
+ * <p>L'entree <code>i</code> contient la couleur de l'index <code>i/(size-1)</code>, ses composantes lineaires etant stockees dans les tableaux <code><b>red, green, blue</b></code> de type <code>float[]</code>. <br />
+ * Trouver la couleur d'un index revient alors a lire trois cases de tableau, sans calcul d'interpolation ni creation d'objet <code>{@link Color}</code> :
+ * c'est la table qu'on utilise pour colorier une image entiere, pixel par pixel.</p>
+ * <p>Une table n'est pas modifiable. L'ecart avec la palette d'origine est au plus celui de l'index arrondi a l'entree la plus proche, soit <code>1/(2*(size-1))</code>.</p>
+ * @see Palette#bake(int)
+ */
+public final class PaletteTable {
+	/**
+	 * La taille de table utilisee par defaut.
+	 */
+	public static final int DEFAULT_SIZE = 1024;
+
+	private final float[] red, green, blue;
+
+	/**
+	 * Construit la table de <code>size</code> entrees de la palette donnee.
+	 * @param palette la palette a echantillonner.
+	 * @param size le nombre d'entrees de la table.
+	 * @throws IllegalArgumentException si la table a moins de deux entrees.
+	 */
+	public PaletteTable(Palette palette, int size) {
+		if(size < 2)
+			throw new IllegalArgumentException("La table doit avoir au moins deux entrees !");
+		red = new float[size];
+		green = new float[size];
+		blue = new float[size];
+		for(int i=0; i<size; i++) {
+			Color c = palette.colorForIndex(i/(double) (size-1));
+			red[i] = (float) c.red();
+			green[i] = (float) c.green();
+			blue[i] = (float) c.blue();
+		}
+	}
+
+	/**
+	 * Retourne le nombre d'entrees de la table.
+	 * @return la taille de la table.
+	 */
+	public int size() {
+		return red.length;
+	}
+
+	/**
+	 * Retourne l'entree de la table la plus proche de l'index de couleur donne.
+	 * @param index l'index de couleur entre 0 et 1.
+	 * @throws IllegalArgumentException si l'index n'est pas entre 0 et 1.
+	 * @return le numero de l'entree, entre 0 et <code>size()-1</code>.
+	 */
+	public int entry(double index) {
+		if(index < 0 || index > 1)
+			throw new IllegalArgumentException("L'index n'est pas valide !" + '\n' + "index : " + index);
+		return (int) (index*(red.length-1) + 0.5);
+	}
+
+	/**
+	 * Retourne la composante rouge (lineaire) de l'entree donnee.
+	 * @param entry le numero de l'entree.
+	 * @return la composante rouge, entre 0 et 1.
+	 */
+	public float red(int entry) {
+		return red[entry];
+	}
+
+	/**
+	 * Retourne la composante verte (lineaire) de l'entree donnee.
+	 * @param entry le numero de l'entree.
+	 * @return la composante verte, entre 0 et 1.
+	 */
+	public float green(int entry) {
+		return green[entry];
+	}
+
+	/**
+	 * Retourne la composante bleue (lineaire) de l'entree donnee.
+	 * @param entry le numero de l'entree.
+	 * @return la composante bleue, entre 0 et 1.
+	 */
+	public float blue(int entry) {
+		return blue[entry];
+	}
+}
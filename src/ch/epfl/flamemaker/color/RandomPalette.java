@@ -2,6 +2,7 @@ package ch.epfl.flamemaker.color;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 /**
  * RandomPalette se comporte comme InterpolatedPalette, sauf que les couleurs de la {@link InterpolatedPalette liste} <br />
@@ -41,6 +42,15 @@ public class RandomPalette implements Palette, Serializable {
 		return palette.colorForIndex(index);
 	}
 	
+	/**
+	 * Retourne la liste des couleurs tirees au hasard, dans l'ordre.
+	 * @return la liste des couleurs, non modifiable.
+	 * @see InterpolatedPalette#colors()
+	 */
+	public List<Color> colors() {
+		return palette.colors();
+	}
+	
 	public RandomPalette clone() {
 		return new RandomPalette(palette);
 	}
@@ -0,0 +1,103 @@
+package ch.epfl.flamemaker.color;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>La classe <code>SRGBTable</code> encode les composantes de couleur en sRGB sans appeler <code>Math.pow()</code> :
+ * elle donne exactement le meme resultat que la formule de <code>{@link Color#sRGBEncode(double, int)}</code>, pour une valeur maximale <code><b>max</b></code> donnee.</p>
+ * <p>Comme l'encodage est croissant, il suffit de connaitre, pour chaque niveau <code>k</code> entre 1 et <code>max</code>, la plus petite composante
+ * qui est encodee en <code>k</code> ou plus : ce sont les seuils du tableau <code><b>thresholds</b></code>, trouves une fois pour toutes par dichotomie. <br />
+ * Le tableau <code><b>coarse</b></code> donne le niveau de <code>16*max</code> composantes regulierement espacees : comme la pente de l'encodage ne depasse pas <code>12.92*max</code>, 
+ * un intervalle contient au plus un seuil, et il ne reste qu'a comparer la composante avec le seuil suivant.</p>
+ * @see Color#sRGBEncode(double, int)
+ */
+final class SRGBTable {
+	/**
+	 * La plus grande valeur maximale pour laquelle on construit une table (16 bits par composante).
+	 */
+	static final int MAX_TABLE_MAX = 65535;
+
+	private static final ConcurrentMap<Integer, SRGBTable> TABLES = new ConcurrentHashMap<Integer, SRGBTable>();
+
+	private final double[] thresholds;
+	private final int[] coarse;
+	private final int buckets;
+
+	/**
+	 * Construit la table d'encodage pour la valeur maximale donnee.
+	 * @param max la valeur maximale d'une composante encodee.
+	 */
+	private SRGBTable(int max) {
+		thresholds = new double[max+2];
+		long oneBits = Double.doubleToLongBits(1.0);
+		for(int k=1; k<=max; k++) {
+			if(formula(1.0, max) < k) {
+				thresholds[k] = Double.POSITIVE_INFINITY;
+				continue;
+			}
+			// Dichotomie sur la representation binaire, croissante pour les double positifs
+			long low = Double.doubleToLongBits(thresholds[k-1]), high = oneBits;
+			while(low < high) {
+				long middle = (low + high) >>> 1;
+				if(formula(Double.longBitsToDouble(middle), max) >= k)
+					high = middle;
+				else
+					low = middle + 1;
+			}
+			thresholds[k] = Double.longBitsToDouble(low);
+		}
+		thresholds[max+1] = Double.POSITIVE_INFINITY;
+
+		buckets = 16*max;
+		coarse = new int[buckets+1];
+		for(int i=0; i<=buckets; i++) {
+			coarse[i] = formula(i/(double) buckets, max);
+		}
+	}
+
+	/**
+	 * Retourne la table de la valeur maximale donnee, en la construisant au premier appel.
+	 * @param max la valeur maximale d'une composante encodee, entre 1 et <code>{@value #MAX_TABLE_MAX}</code>.
+	 * @return la table d'encodage.
+	 */
+	static SRGBTable forMax(int max) {
+		SRGBTable table = TABLES.get(max);
+		if(table == null) {
+			SRGBTable created = new SRGBTable(max);
+			table = TABLES.putIfAbsent(max, created);
+			if(table == null)
+				table = created;
+		}
+		return table;
+	}
+
+	/**
+	 * Encode la composante donnee, qui doit etre entre 0 et 1.
+	 * @param v la valeur lineaire de la composante.
+	 * @return la composante encodee en sRGB, entre 0 et <code>max</code>.
+	 */
+	int encode(double v) {
+		int k = coarse[(int) (v*buckets)];
+		while(v >= thresholds[k+1])
+			k++;
+		while(k > 0 && v < thresholds[k])
+			k--;
+		return k;
+	}
+
+	/**
+	 * La formule d'encodage sRGB, telle qu'appliquee par <code>{@link Color#sRGBEncode(double, int)}</code> avant l'existence des tables.
+	 * @param v la valeur lineaire de la composante.
+	 * @param max la valeur maximale d'une composante encodee.
+	 * @return la composante encodee en sRGB.
+	 */
+	static int formula(double v, int max) {
+		if ( v <= 0.0031308)
+			v = 12.92*v;
+		else
+			v = (1.055*Math.pow(v, 1/2.4))-0.055;
+
+		return (int)(v*max);
+	}
+}
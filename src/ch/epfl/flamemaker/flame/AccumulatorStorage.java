@@ -0,0 +1,268 @@
+package ch.epfl.flamemaker.flame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>La classe <code>AccumulatorStorage</code> represente l'endroit ou sont stockes, case par case, le nombre de points et la somme des index de couleur (en virgule fixe) d'un accumulateur.</p>
+ * <p>Les cases sont numerotees a plat, ligne apres ligne. Trois implementations sont disponibles : <br />
+ * <code>{@link AccumulatorStorage.Heap}</code> stocke les cases dans deux tableaux Java. <br />
+ * <code>{@link AccumulatorStorage.Mapped}</code> stocke les cases dans un fichier projete en memoire, en dehors du tas : la taille de l'accumulateur n'est alors limitee que par le disque. <br />
+ * <code>{@link AccumulatorStorage.Atomic}</code> stocke les cases dans des tableaux atomiques, et peut etre rempli par plusieurs fils d'execution a la fois.</p>
+ * @see FlameAccumulator
+ * @see FlameAccumulator.Builder
+ */
+abstract class AccumulatorStorage {
+	/**
+	 * Retourne le nombre de cases.
+	 * @return le nombre de cases.
+	 */
+	abstract int size();
+
+	/**
+	 * Retourne le nombre de points sur la case d'index donne.
+	 * @param index l'index de la case.
+	 * @return le nombre de points sur la case.
+	 */
+	abstract int hitCount(int index);
+
+	/**
+	 * Retourne la somme des index de couleur, en virgule fixe, de la case d'index donne.
+	 * @param index l'index de la case.
+	 * @return la somme des index de couleur de la case.
+	 */
+	abstract long colorIndexSum(int index);
+
+	/**
+	 * Ajoute des points a la case d'index donne.
+	 * @param index l'index de la case.
+	 * @param hits le nombre de points a ajouter.
+	 * @param colorIndexSum la somme de leurs index de couleur, en virgule fixe.
+	 */
+	abstract void add(int index, int hits, long colorIndexSum);
+
+	/**
+	 * Retourne une copie independante de ce stockage, de meme nature.
+	 * @return la copie.
+	 */
+	abstract AccumulatorStorage copy();
+
+	/**
+	 * Ajoute a ce stockage le contenu du stockage <code>that</code>, case par case.
+	 * @param that le stockage dont on ajoute les points.
+	 */
+	void addAll(AccumulatorStorage that) {
+		for(int i=0; i<size(); i++) {
+			add(i, that.hitCount(i), that.colorIndexSum(i));
+		}
+	}
+
+	/**
+	 * Stockage dans deux tableaux Java, sur le tas.
+	 */
+	static final class Heap extends AccumulatorStorage {
+		private final int[] hitCount;
+		private final long[] colorIndexSum;
+
+		/**
+		 * Construit un stockage vide de <code>size</code> cases.
+		 * @param size le nombre de cases.
+		 */
+		Heap(int size) {
+			this(new int[size], new long[size]);
+		}
+
+		/**
+		 * Construit un stockage sur les tableaux donnes, qui ne sont pas copies.
+		 * @param hitCount le nombre de points de chaque case.
+		 * @param colorIndexSum la somme des index de couleur de chaque case, en virgule fixe.
+		 */
+		Heap(int[] hitCount, long[] colorIndexSum) {
+			this.hitCount = hitCount;
+			this.colorIndexSum = colorIndexSum;
+		}
+
+		@Override
+		int size() {
+			return hitCount.length;
+		}
+
+		@Override
+		int hitCount(int index) {
+			return hitCount[index];
+		}
+
+		@Override
+		long colorIndexSum(int index) {
+			return colorIndexSum[index];
+		}
+
+		@Override
+		void add(int index, int hits, long colorIndexSum) {
+			this.hitCount[index] += hits;
+			this.colorIndexSum[index] += colorIndexSum;
+		}
+
+		@Override
+		void addAll(AccumulatorStorage that) {
+			if(!(that instanceof Heap)) {
+				super.addAll(that);
+				return;
+			}
+			Heap heap = (Heap) that;
+			for(int i=0; i<hitCount.length; i++) {
+				hitCount[i] += heap.hitCount[i];
+				colorIndexSum[i] += heap.colorIndexSum[i];
+			}
+		}
+
+		@Override
+		Heap copy() {
+			return new Heap(hitCount.clone(), colorIndexSum.clone());
+		}
+	}
+
+	/**
+	 * <p>Stockage dans un fichier projete en memoire (<code>{@link FileChannel#map(FileChannel.MapMode, long, long) map()}</code>), en dehors du tas.</p>
+	 * <p>Comme une projection ne peut pas depasser 2 Go, les cases sont reparties en segments de <code>{@value #SEGMENT_SIZE}</code> cases,
+	 * chacun projete separement. <br />
+	 * Le fichier est temporaire : il est supprime des que possible, la place sur le disque etant liberee quand le stockage n'est plus utilise.</p>
+	 */
+	static final class Mapped extends AccumulatorStorage {
+		/**
+		 * Le nombre de cases par segment.
+		 */
+		static final int SEGMENT_SIZE = 1 << 26;
+		private static final int SEGMENT_SHIFT = 26;
+		private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+		private final int size;
+		private final File directory;
+		private final IntBuffer[] hitCount;
+		private final LongBuffer[] colorIndexSum;
+
+		/**
+		 * Construit un stockage vide de <code>size</code> cases, dans un fichier temporaire du dossier donne.
+		 * @param size le nombre de cases.
+		 * @param directory le dossier dans lequel creer le fichier, ou <code>null</code> pour le dossier temporaire du systeme.
+		 * @throws IOException si le fichier ne peut pas etre cree ou projete.
+		 */
+		Mapped(int size, File directory) throws IOException {
+			this.size = size;
+			this.directory = directory;
+			int segments = (size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT;
+			hitCount = new IntBuffer[segments];
+			colorIndexSum = new LongBuffer[segments];
+
+			File file = File.createTempFile("flame", ".acc", directory);
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				FileChannel channel = raf.getChannel();
+				long position = 0;
+				for(int s=0; s<segments; s++) {
+					long cells = Math.min(SEGMENT_SIZE, size - ((long) s << SEGMENT_SHIFT));
+					// Les projections agrandissent le fichier, dont le contenu initial est nul
+					hitCount[s] = channel.map(FileChannel.MapMode.READ_WRITE, position, cells*4).order(ByteOrder.nativeOrder()).asIntBuffer();
+					position += cells*4;
+					colorIndexSum[s] = channel.map(FileChannel.MapMode.READ_WRITE, position, cells*8).order(ByteOrder.nativeOrder()).asLongBuffer();
+					position += cells*8;
+				}
+			}
+			finally {
+				// Les projections restent valides une fois le canal ferme
+				raf.close();
+				if(!file.delete())
+					file.deleteOnExit();
+			}
+		}
+
+		@Override
+		int size() {
+			return size;
+		}
+
+		@Override
+		int hitCount(int index) {
+			return hitCount[index >>> SEGMENT_SHIFT].get(index & SEGMENT_MASK);
+		}
+
+		@Override
+		long colorIndexSum(int index) {
+			return colorIndexSum[index >>> SEGMENT_SHIFT].get(index & SEGMENT_MASK);
+		}
+
+		@Override
+		void add(int index, int hits, long colorIndexSum) {
+			IntBuffer h = this.hitCount[index >>> SEGMENT_SHIFT];
+			LongBuffer c = this.colorIndexSum[index >>> SEGMENT_SHIFT];
+			int i = index & SEGMENT_MASK;
+			h.put(i, h.get(i) + hits);
+			c.put(i, c.get(i) + colorIndexSum);
+		}
+
+		@Override
+		Mapped copy() {
+			try {
+				Mapped copy = new Mapped(size, directory);
+				copy.addAll(this);
+				return copy;
+			} catch (IOException e) {
+				throw new IllegalStateException("Impossible de copier l'accumulateur projete en memoire !", e);
+			}
+		}
+	}
+
+	/**
+	 * <p>Stockage dans des tableaux atomiques (<code>{@link AtomicIntegerArray}</code> et <code>{@link AtomicLongArray}</code>), sur le tas.</p>
+	 * <p><code>{@link AccumulatorStorage#add(int, int, long) add()}</code> peut etre appele par plusieurs fils d'execution a la fois, sans verrou : 
+	 * chaque compteur est incremente avec <code>getAndAdd()</code>. Comme les sommes d'index de couleur sont en virgule fixe, le resultat ne depend pas de l'ordre des ajouts.</p>
+	 */
+	static final class Atomic extends AccumulatorStorage {
+		private final AtomicIntegerArray hitCount;
+		private final AtomicLongArray colorIndexSum;
+
+		/**
+		 * Construit un stockage vide de <code>size</code> cases.
+		 * @param size le nombre de cases.
+		 */
+		Atomic(int size) {
+			hitCount = new AtomicIntegerArray(size);
+			colorIndexSum = new AtomicLongArray(size);
+		}
+
+		@Override
+		int size() {
+			return hitCount.length();
+		}
+
+		@Override
+		int hitCount(int index) {
+			return hitCount.get(index);
+		}
+
+		@Override
+		long colorIndexSum(int index) {
+			return colorIndexSum.get(index);
+		}
+
+		@Override
+		void add(int index, int hits, long colorIndexSum) {
+			this.hitCount.getAndAdd(index, hits);
+			this.colorIndexSum.getAndAdd(index, colorIndexSum);
+		}
+
+		@Override
+		Atomic copy() {
+			Atomic copy = new Atomic(size());
+			copy.addAll(this);
+			return copy;
+		}
+	}
+}
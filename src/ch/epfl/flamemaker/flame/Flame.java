@@ -1,6 +1,8 @@
 package ch.epfl.flamemaker.flame;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import ch.epfl.flamemaker.geometry2d.*;
 /**
  * La classe Flame modélise les fractales <code>Flame</code>. <br />
@@ -8,6 +10,15 @@ import ch.epfl.flamemaker.geometry2d.*;
  * @see FlameTransformation
  */
 public final class Flame {
+	/**
+	 * La graine utilisee par defaut pour generer les points de la fractale.
+	 */
+	public static final long DEFAULT_SEED = 2013;
+	/**
+	 * Le nombre de points generes par bloc lors du calcul parallele.
+	 */
+	public static final int CHUNK_SIZE = 1 << 20;
+	
 	private final List<FlameTransformation> ftransformations;
 		/**
 		 * construit une fractale Flame etant donne sa liste de transformations.
@@ -16,6 +27,14 @@ public final class Flame {
 	public Flame(List <FlameTransformation> ftransformations) {
 		this.ftransformations = new ArrayList<FlameTransformation>(ftransformations);
 	}
+	
+	/**
+	 * Retourne la liste des transformations de la fractale, non modifiable.
+	 * @return les transformations.
+	 */
+	List<FlameTransformation> transformations() {
+		return Collections.unmodifiableList(ftransformations);
+	}
 
 	
 	/**
@@ -32,41 +51,207 @@ public final class Flame {
 	 * @see Point
 	 * @see FlameTransformation
 	 * @see FlameAccumulator.Builder
-	 * @see FlameAccumulator.Builder#hit(Point, double)
+	 * @see FlameAccumulator.Builder#hit(double, double, double)
 	 * @see FlameAccumulator.Builder#build()
+	 * @see Flame#compile()
+	 * @throws CancellationException si le fil d'execution est interrompu pendant le calcul.
 	 * @return un accumulateur qui contient les points qui forment la fractale.
 	*/
 	public FlameAccumulator compute(Rectangle frame, int width, int height, int density) {
 		FlameAccumulator.Builder builder = new FlameAccumulator.Builder(frame, width, height);
-		double[] colorIndexTab = new double[ftransformations.size()];
-		Point p = Point.ORIGIN;
-		double c = 0;
-		int m = density*width*height;
-		Random randy = new Random(2013);
-		colorIndexTab[0] = 0;
-		for(int i=1; i<ftransformations.size(); i++) {
-			if(i>1) {
-				int log2 = (int) (Math.ceil(Math.log(i))/(Math.log(2)));
-				colorIndexTab[i] = (i-((Math.pow(2, log2))/2.0))/(Math.pow(2, log2));
-			} 
-			else {
-				colorIndexTab[i] = i;
-			}
-		}
+		walk(new Random(DEFAULT_SEED), density*width*height, compile(), builder);
+		return builder.build();
+	}
+	
+	/**
+	 * <p>Calcule la fractale comme <code>{@link Flame#compute(Rectangle, int, int, int, int, long) compute()}</code>, avec la graine par defaut <code>{@value #DEFAULT_SEED}</code>.</p>
+	 * @param frame le cadre qui delimite la region du plan dans laquelle on genere la fractale.
+	 * @param width la largeur de l'accumulateur.
+	 * @param height la hauteur de l'accumulateur.
+	 * @param density modifie le nombre de points a generer.
+	 * @param threads le nombre de fils d'execution a utiliser.
+	 * @throws IllegalArgumentException si le nombre de fils est negatif ou nul.
+	 * @return un accumulateur qui contient les points qui forment la fractale.
+	 */
+	public FlameAccumulator compute(Rectangle frame, int width, int height, int density, int threads) {
+		return compute(frame, width, height, density, threads, DEFAULT_SEED);
+	}
+	
+	/**
+	 * <p>Calcule la fractale en repartissant les points a generer sur <code>threads</code> fils d'execution.</p>
+	 * <p>Les points sont generes par blocs de <code>{@value #CHUNK_SIZE}</code>. Chaque bloc part de l'origine avec son propre generateur aleatoire, 
+	 * obtenu en divisant (<code>{@link SplittableRandom#split() split()}</code>) le generateur construit avec la graine <code>seed</code>, toujours dans le meme ordre. <br />
+	 * Chaque fil traite les blocs qui lui parviennent dans son propre <code>{@link FlameAccumulator.Builder}</code> (un "fragment"), et les fragments sont ensuite fusionnes grace a 
+	 * <code>{@link FlameAccumulator.Builder#merge(FlameAccumulator.Builder) merge()}</code>.</p>
+	 * <p>Comme les sommes d'index de couleur de l'accumulateur sont exactes (virgule fixe), l'ordre de fusion n'a pas d'importance : 
+	 * le resultat ne depend que de la graine, et est identique quel que soit le nombre de fils utilises. <br />
+	 * Il differe en revanche de celui de <code>{@link Flame#compute(Rectangle, int, int, int) compute(frame, width, height, density)}</code>, 
+	 * qui reste la variante a privilegier pour les petits apercus.</p>
+	 * @param frame le cadre qui delimite la region du plan dans laquelle on genere la fractale.
+	 * @param width la largeur de l'accumulateur.
+	 * @param height la hauteur de l'accumulateur.
+	 * @param density modifie le nombre de points a generer.
+	 * @param threads le nombre de fils d'execution a utiliser.
+	 * @param seed la graine dont sont derives les generateurs aleatoires des blocs.
+	 * @throws IllegalArgumentException si le nombre de fils est negatif ou nul.
+	 * @throws CancellationException si le fil d'execution est interrompu pendant le calcul.
+	 * @see FlameAccumulator.Builder#merge(FlameAccumulator.Builder)
+	 * @return un accumulateur qui contient les points qui forment la fractale.
+	 */
+	public FlameAccumulator compute(Rectangle frame, int width, int height, int density, int threads, long seed) {
+		return computeChunks(frame, width, height, density, threads, seed, null);
+	}
+	
+	/**
+	 * <p>Calcule la fractale comme <code>{@link Flame#compute(Rectangle, int, int, int, int, long) compute()}</code>, 
+	 * mais tous les fils accumulent leurs points dans un seul batisseur partage, cree par <code>{@link FlameAccumulator.Builder#newConcurrentBuilder(Rectangle, int, int) newConcurrentBuilder()}</code>, 
+	 * au lieu d'un fragment chacun.</p>
+	 * <p>La memoire utilisee ne depend donc plus du nombre de fils, au prix d'increments atomiques (et de conflits entre fils sur les cases les plus visitees). <br />
+	 * Les blocs et leurs generateurs etant les memes, le resultat est identique a celui de <code>compute()</code> pour la meme graine.</p>
+	 * @param frame le cadre qui delimite la region du plan dans laquelle on genere la fractale.
+	 * @param width la largeur de l'accumulateur.
+	 * @param height la hauteur de l'accumulateur.
+	 * @param density modifie le nombre de points a generer.
+	 * @param threads le nombre de fils d'execution a utiliser.
+	 * @param seed la graine dont sont derives les generateurs aleatoires des blocs.
+	 * @throws IllegalArgumentException si le nombre de fils est negatif ou nul.
+	 * @see FlameAccumulatorBenchmark
+	 * @return un accumulateur qui contient les points qui forment la fractale.
+	 */
+	public FlameAccumulator computeShared(Rectangle frame, int width, int height, int density, int threads, long seed) {
+		return computeChunks(frame, width, height, density, threads, seed, FlameAccumulator.Builder.newConcurrentBuilder(frame, width, height));
+	}
+	
+	/**
+	 * Genere les points par blocs sur <code>threads</code> fils d'execution et les accumule,
+	 * soit dans un fragment par fil (si <code>shared</code> est <code>null</code>), soit dans le batisseur partage <code>shared</code>.
+	 */
+	private FlameAccumulator computeChunks(final Rectangle frame, final int width, final int height, int density, int threads, long seed, final FlameAccumulator.Builder shared) {
+		if(threads <= 0)
+			throw new IllegalArgumentException("Le nombre de fils d'execution doit etre strictement positif !");
 		
-		for(int i=0; i<m+20; i++) {
-			if(ftransformations.size() < 1)
-				throw new UnsupportedOperationException("Impossible de generer des points si la liste de transformations est vide !");
-			int random = randy.nextInt(ftransformations.size());
-			FlameTransformation t = ftransformations.get(random);
-			c = (colorIndexTab[random] + c)/2.0;
-			p = t.transformPoint(p);
-			if(i>20)
-				builder.hit(p, c);
+		final FlameKernel kernel = compile();
+		final long m = (long) density*width*height;
+		final int chunks = (int) ((m + CHUNK_SIZE - 1)/CHUNK_SIZE);
+		// Les generateurs des blocs sont derives a l'avance, dans l'ordre, pour ne pas dependre de l'ordonnancement des fils
+		final SplittableRandom[] chunkRandoms = new SplittableRandom[chunks];
+		SplittableRandom master = new SplittableRandom(seed);
+		for(int k=0; k<chunks; k++) {
+			chunkRandoms[k] = master.split();
 		}
 		
-		return builder.build();
+		final AtomicInteger nextChunk = new AtomicInteger();
+		int workers = Math.max(1, Math.min(threads, chunks));
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		List<Future<FlameAccumulator.Builder>> shards = new ArrayList<Future<FlameAccumulator.Builder>>();
+		try {
+			for(int i=0; i<workers; i++) {
+				shards.add(executor.submit(new Callable<FlameAccumulator.Builder>() {
+					@Override
+					public FlameAccumulator.Builder call() {
+						FlameAccumulator.Builder shard = (shared != null) ? shared : new FlameAccumulator.Builder(frame, width, height);
+						int k;
+						while((k = nextChunk.getAndIncrement()) < chunks) {
+							walk(chunkRandoms[k], Math.min(CHUNK_SIZE, m - (long) k*CHUNK_SIZE), kernel, shard);
+						}
+						return shard;
+					}
+				}));
+			}
+			
+			FlameAccumulator.Builder builder = shards.get(0).get();
+			for(int i=1; i<shards.size(); i++) {
+				FlameAccumulator.Builder shard = shards.get(i).get();
+				if(shard != builder)
+					builder.merge(shard);
+			}
+			return builder.build();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			CancellationException cancellation = new CancellationException("Le calcul de la fractale a ete interrompu !");
+			cancellation.initCause(e);
+			throw cancellation;
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Le calcul de la fractale a echoue !", e.getCause());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Compile la fractale en un <code>{@link FlameKernel}</code>, qui applique l'algorithme du chaos directement sur des <code>double</code>. <br />
+	 * Seules les variations de poids non nul sont conservees, et la composante affine n'est appliquee qu'une fois par iteration.
+	 * @throws UnsupportedOperationException si la liste de transformations est vide.
+	 * @return la fractale compilee.
+	 * @see FlameKernel
+	 */
+	public FlameKernel compile() {
+		return new FlameKernel(ftransformations);
 	}
+	
+	/**
+	 * Applique l'algorithme du chaos depuis l'origine et ajoute les points generes au batisseur donne. <br />
+	 * Les 20 premieres iterations ne sont pas accumulees, le temps que le point courant rejoigne l'attracteur.
+	 * @param randy le generateur aleatoire qui choisit les transformations.
+	 * @param m le nombre de points a generer.
+	 * @param kernel la fractale compilee.
+	 * @param builder le batisseur dans lequel on accumule les points.
+	 */
+	private static void walk(Random randy, long m, FlameKernel kernel, FlameAccumulator.Builder builder) {
+		FlameKernel.Walker walker = kernel.newWalker();
+		int size = kernel.transformationCount();
+		for(int i=0; i<21; i++) {
+			walker.step(randy.nextInt(size));
+		}
+		// La boucle d'origine (i de 0 a m+19, points accumules pour i>20) accumule m-1 points
+		accumulate(walker, randy, null, size, m-1, builder);
+	}
+	
+	/**
+	 * Applique l'algorithme du chaos depuis l'origine pour un bloc de points du calcul parallele. <br />
+	 * Comme pour <code>{@link Flame#walk(Random, long, FlameKernel, FlameAccumulator.Builder) walk()}</code>, les 21 premieres iterations ne sont pas accumulees, 
+	 * mais le bloc ajoute exactement <code>points</code> points au batisseur.
+	 * @param randy le generateur aleatoire du bloc.
+	 * @param points le nombre de points a accumuler.
+	 * @param kernel la fractale compilee.
+	 * @param builder le batisseur dans lequel on accumule les points.
+	 */
+	private static void walk(SplittableRandom randy, long points, FlameKernel kernel, FlameAccumulator.Builder builder) {
+		FlameKernel.Walker walker = kernel.newWalker();
+		int size = kernel.transformationCount();
+		for(int i=0; i<21; i++) {
+			walker.step(randy.nextInt(size));
+		}
+		accumulate(walker, null, randy, size, points, builder);
+	}
+	
+	/**
+	 * Fait avancer le marcheur de <code>points</code> pas et les accumule dans le batisseur, 
+	 * par lots de <code>{@value FlameAccumulator.Builder#BATCH_SIZE}</code> passes a <code>{@link FlameAccumulator.Builder#hitAll(double[], double[], double[], int) hitAll()}</code>. <br />
+	 * Les transformations sont choisies par <code>random</code> s'il n'est pas <code>null</code>, par <code>splittable</code> sinon.
+	 * @throws CancellationException si le fil d'execution est interrompu.
+	 */
+	private static void accumulate(FlameKernel.Walker walker, Random random, SplittableRandom splittable, int size, long points, FlameAccumulator.Builder builder) {
+		double[] xs = new double[FlameAccumulator.Builder.BATCH_SIZE];
+		double[] ys = new double[FlameAccumulator.Builder.BATCH_SIZE];
+		double[] cs = new double[FlameAccumulator.Builder.BATCH_SIZE];
+		while(points > 0) {
+			// Un calcul interrompu s'arrete au lot suivant, p.ex. lorsqu'un apercu devenu inutile est annule
+			if(Thread.currentThread().isInterrupted())
+				throw new CancellationException("Le calcul de la fractale a ete interrompu !");
+			int n = (int) Math.min(points, FlameAccumulator.Builder.BATCH_SIZE);
+			for(int i=0; i<n; i++) {
+				walker.step(random != null ? random.nextInt(size) : splittable.nextInt(size));
+				xs[i] = walker.x();
+				ys[i] = walker.y();
+				cs[i] = walker.colorIndex();
+			}
+			builder.hitAll(xs, ys, cs, n);
+			points -= n;
+		}
+	}
+	
 	/**
 	 * <p>La classe <code>Flame.Builder</code> est une classe imbriquee qui permet de batir une fractale <code>{@link Flame}</code> de maniere incrementale.</p>
 	 * <p>Elle possede un attribut <code><b>ftransformationBuilders</b></code> de type <code>List</code> qui contient les {@link FlameTransformation.Builder builders de FlameTransformation} afin de pouvoir les modifier avant de creer la <code>Flame</code>
@@ -92,7 +277,8 @@ public final class Flame {
 		}
 		
 		/**
-		 * Construit et retourne la fractale <code>Flame</code>, en builant les <code>{@link FlameTransformation}</code> dans une liste qui est passee en parametre du {@link Flame#Flame(List) constructeur de <code>Flame</code>}.
+		 * Construit et retourne la fractale <code>Flame</code>, en builant les <code>{@link FlameTransformation}</code> dans une liste qui est passee en parametre du {@link Flame#Flame(List) constructeur de <code>Flame</code>}. <br />
+		 * Les transformations qui n'ont pas ete modifiees depuis la construction precedente ne sont pas reconstruites.
 		 * @return la <code>Flame</code> construite a partir de ce Builder.
 		 * @see Flame
 		 * @see Flame#Flame(List)
@@ -1,41 +1,78 @@
 package ch.epfl.flamemaker.flame;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import ch.epfl.flamemaker.color.*;
 import ch.epfl.flamemaker.geometry2d.*;
 /**
  * <p>La classe <code>FlameAccumulator</code> sert a representer le nombre de points de la fractale contenus dans chaque case de l'accumulateur, qui correspond a un pixel de l'image finale.</p>
- * <p>Possède un attribut <code>int[][] <b>flameAcc</b></code> qui est un tableau d'entiers contenant le nombre de points par case. <br />
- * Possède un attribut <code>int[][] <b>colorIndexSum</b></code> qui est un tableau de reels contenant la somme des index de couleur de chaque case, grace a laquelle l'index de couleur moyen de la case peut  etre determine. <br />
+ * <p>Possède un attribut <code>int[] <b>flameAcc</b></code> qui est un tableau d'entiers contenant le nombre de points par case. <br />
+ * Possède un attribut <code>long[] <b>colorIndexSum</b></code> qui est un tableau contenant la somme des index de couleur de chaque case, grace a laquelle l'index de couleur moyen de la case peut  etre determine. <br />
+ * Les index sont sommes en virgule fixe (multiplies par <code>{@link FlameAccumulator#COLOR_INDEX_SCALE COLOR_INDEX_SCALE}</code>) : la somme est ainsi exacte et ne depend pas de l'ordre dans lequel les points sont accumules. <br />
  * Possède un attribut <code>double <b>maxPoints</b></code> qui donne le nombre de points sur la case qui contient le plus de points dans l'accumulateur.</p>
+ * <p>Les deux tableaux sont "a plat" : la case (x, y) se trouve a l'index <code>y*width + x</code>, ligne apres ligne. 
+ * Ils sont stockes dans un <code>{@link AccumulatorStorage}</code>, soit sur le tas, soit dans un fichier projete en memoire.</p>
  */
 public final class FlameAccumulator {
-	private final int[][] flameAcc;
-	private final double[][] colorIndexSum; 
+	private final int width, height;
+	private final AccumulatorStorage storage;
+	/**
+	 * Le facteur par lequel les index de couleur sont multiplies avant d'etre sommes, en virgule fixe.
+	 */
+	static final double COLOR_INDEX_SCALE = 1L << 31;
+	
 	private final int maxPoints;
+	// La table d'intensite du dernier mappage utilise, partagee par toutes les lignes et tous les coloriages avec ce mappage
+	private volatile IntensityTable intensityTable;
 	
 	/**
-	 * Construit un accumulateur avec le tableau bi-dimensionnel hitCount et le tableau bi-dimensionnel colorIndexSum donnes. <br />
+	 * Construit un accumulateur de largeur et hauteur donnees avec le stockage donne, qui n'est pas copie. <br />
 	 * Determine le nombre maximum de points sur une case. 
-	 * @param hitCount le tableau qui contient le nombre de points par case de l'image.
-	 * @param colorIndexSum qui contient l'indice des couleurs a donner a chaque case.
+	 * @param width la largeur de l'accumulateur.
+	 * @param height la hauteur de l'accumulateur.
+	 * @param storage le stockage qui contient le nombre de points et la somme des index de couleur de chaque case.
 	 */
-	private FlameAccumulator(int[][] hitCount, double[][] colorIndexSum) {
+	private FlameAccumulator(int width, int height, AccumulatorStorage storage) {
 		int maxPoints = 0;
-		
-		this.flameAcc = new int[hitCount.length][hitCount[0].length];
-		for(int i=0; i<hitCount.length; i++) {
-			for(int j=0; j<hitCount[i].length; j++) {
-				this.flameAcc[i][j] = hitCount[i][j];
-				maxPoints = maxPoints < hitCount[i][j] ? hitCount[i][j] : maxPoints;
-			}
+		for(int i=0; i<storage.size(); i++) {
+			int hits = storage.hitCount(i);
+			maxPoints = maxPoints < hits ? hits : maxPoints;
 		}
+		this.width = width;
+		this.height = height;
+		this.storage = storage;
 		this.maxPoints = maxPoints;
-		
-		this.colorIndexSum = new double[colorIndexSum.length][];
-		for(int i=0; i<colorIndexSum.length; i++) {
-			this.colorIndexSum[i] = colorIndexSum[i].clone();
-		}
-		
+	}
+	
+	/**
+	 * Construit un accumulateur sur les tableaux donnes, qui ne sont pas copies, p.ex. relus depuis un fichier.
+	 * @param width la largeur de l'accumulateur.
+	 * @param height la hauteur de l'accumulateur.
+	 * @param hitCount le nombre de points de chaque case, ligne apres ligne.
+	 * @param colorIndexSum la somme des index de couleur de chaque case, en virgule fixe.
+	 * @throws IllegalArgumentException si la taille des tableaux ne correspond pas aux dimensions.
+	 */
+	static FlameAccumulator of(int width, int height, int[] hitCount, long[] colorIndexSum) {
+		if(hitCount.length != (long) width*height || colorIndexSum.length != hitCount.length)
+			throw new IllegalArgumentException("La taille des tableaux ne correspond pas aux dimensions de l'accumulateur !");
+		return new FlameAccumulator(width, height, new AccumulatorStorage.Heap(hitCount, colorIndexSum));
+	}
+	
+	/**
+	 * Retourne la somme des index de couleur, en virgule fixe, de la case d'index <code>y*width + x</code>.
+	 */
+	long colorIndexSum(int index) {
+		return storage.colorIndexSum(index);
+	}
+	
+	/**
+	 * Retourne le nombre de points de la case d'index <code>y*width + x</code>.
+	 */
+	int hitCount(int index) {
+		return storage.hitCount(index);
 	}
 	
 	/**
@@ -53,20 +90,196 @@ public final class FlameAccumulator {
 	 * @see FlameAccumulator#intensity(int, int)
 	 */
 	public Color color(Palette palette, Color background, int x, int y) {
-		if(x < 0 || y < 0 || x > width() || y > height())
+		if(x < 0 || y < 0 || x >= width || y >= height)
 			throw new IllegalArgumentException("Les coordonnes ne sont pas valides !");
 		double proportion = intensity(x, y);
 		if(proportion == 0)
 			return background;
-		return palette.colorForIndex((double) (colorIndexSum[y][x]/flameAcc[y][x])).mixWith(background, proportion);
+		int index = y*width + x;
+		return palette.colorForIndex(storage.colorIndexSum(index)/COLOR_INDEX_SCALE/storage.hitCount(index)).mixWith(background, proportion);
+	}
+		
+	/**
+	 * Comme <code>{@link FlameAccumulator#color(Palette, Color, int, int) color()}</code>, mais avec une palette cuite en table, 
+	 * et en retournant directement la couleur sous sa forme "packed" (<code>{@link Color#asPackedRGB()}</code>) : aucun objet n'est cree.
+	 * @param table la table de la palette de couleurs utilisee.
+	 * @param background la couleur de fond.
+	 * @param x la coordonnee x de la case.
+	 * @param y la coordonnee y de la case.
+	 * @throws IndexOutOfBoundsException si l'une des coordonnees est negative ou depasse la coordonnee maximale.
+	 * @return la couleur de la case (x,y) au format "packed".
+	 * @see Palette#bake(int)
+	 * @see PaletteTable
+	 */
+	public int packedColor(PaletteTable table, Color background, int x, int y) {
+		double proportion = intensity(x, y);
+		if(proportion == 0)
+			return background.asPackedRGB();
+		int index = y*width + x;
+		int entry = table.entry(storage.colorIndexSum(index)/COLOR_INDEX_SCALE/storage.hitCount(index));
+		return Color.packRGB(proportion*table.red(entry) + (1-proportion)*background.red(),
+				proportion*table.green(entry) + (1-proportion)*background.green(),
+				proportion*table.blue(entry) + (1-proportion)*background.blue());
+	}
+	
+	/**
+	 * Comme <code>{@link FlameAccumulator#colorize(PaletteTable, Color, int[]) colorize()}</code>, avec la palette cuite en une table de <code>{@value PaletteTable#DEFAULT_SIZE}</code> couleurs.
+	 * @param palette la palette de couleurs utilisee.
+	 * @param background la couleur de fond.
+	 * @param raster le tableau dans lequel on ecrit les couleurs, ligne apres ligne.
+	 * @throws IllegalArgumentException si le tableau n'a pas exactement <code>width*height</code> cases.
+	 */
+	public void colorize(Palette palette, Color background, int[] raster) {
+		colorize(palette.bake(PaletteTable.DEFAULT_SIZE), background, raster);
+	}
+	
+	/**
+	 * <p>Ecrit d'un coup la couleur de toutes les cases de l'accumulateur, au format "packed", dans le tableau <code>raster</code> : 
+	 * la case (x, y) va dans <code>raster[y*width + x]</code>, comme les pixels d'une <code>BufferedImage</code> de type <code>TYPE_INT_RGB</code>.</p>
+	 * <p>Le resultat est celui de <code>{@link FlameAccumulator#packedColor(PaletteTable, Color, int, int) packedColor()}</code> pour chaque case, 
+	 * mais <code>log(maxPoints+1)</code> n'est calcule qu'une fois, et les lignes sont reparties sur les fils du <code>{@link ForkJoinPool#commonPool() ForkJoinPool}</code> commun. 
+	 * Chaque ligne est encodee en sRGB en un seul appel a <code>{@link Color#packRGB(double[], double[], double[], int[], int, int)}</code>.</p>
+	 * @param table la table de la palette de couleurs utilisee.
+	 * @param background la couleur de fond.
+	 * @param raster le tableau dans lequel on ecrit les couleurs, ligne apres ligne.
+	 * @throws IllegalArgumentException si le tableau n'a pas exactement <code>width*height</code> cases.
+	 */
+	public void colorize(PaletteTable table, Color background, int[] raster) {
+		colorize(ToneMap.DEFAULT, table, background, raster);
+	}
+	
+	/**
+	 * <p>Comme <code>{@link FlameAccumulator#colorize(PaletteTable, Color, int[]) colorize()}</code>, mais l'intensite de chaque case est donnee par le mappage <code>toneMap</code>. <br />
+	 * Les intensites sont lues dans la table du mappage : recolorier le meme accumulateur avec d'autres reglages ne relance pas l'algorithme du chaos, 
+	 * et le recolorier avec le meme mappage ne refait aucun calcul d'intensite.</p>
+	 * @param toneMap le mappage des nombres de points en intensites.
+	 * @param table la table de la palette de couleurs utilisee.
+	 * @param background la couleur de fond.
+	 * @param raster le tableau dans lequel on ecrit les couleurs, ligne apres ligne.
+	 * @throws IllegalArgumentException si le tableau n'a pas exactement <code>width*height</code> cases.
+	 * @see ToneMap
+	 */
+	public void colorize(ToneMap toneMap, PaletteTable table, Color background, int[] raster) {
+		if(raster.length != width*height)
+			throw new IllegalArgumentException("Le tableau doit avoir exactement une case par case de l'accumulateur !");
+		ForkJoinPool.commonPool().invoke(new ColorizeRows(toneMap, table, background, raster, 0, height));
+	}
+	
+	/**
+	 * <p>Calcule les composantes lineaires (avant encodage sRGB) de la couleur des cases de la ligne <code>y</code>, 
+	 * et les ecrit dans <code>r[0]</code> a <code>r[width-1]</code>, et de meme pour <code>g</code> et <code>b</code>.</p>
+	 * <p>C'est l'etape commune a <code>{@link FlameAccumulator#colorize(ToneMap, PaletteTable, Color, int[]) colorize()}</code> et aux ecritures de fichiers,
+	 * qui encodent ensuite les composantes a leur propre precision.</p>
+	 * @param toneMap le mappage des nombres de points en intensites.
+	 * @param table la table de la palette de couleurs utilisee.
+	 * @param background la couleur de fond.
+	 * @param y la coordonnee y de la ligne.
+	 * @param r le tableau des composantes rouges.
+	 * @param g le tableau des composantes vertes.
+	 * @param b le tableau des composantes bleues.
+	 * @throws IndexOutOfBoundsException si <code>y</code> n'est pas une ligne de l'accumulateur, ou si l'un des tableaux est plus court que la largeur.
+	 */
+	public void linearRow(ToneMap toneMap, PaletteTable table, Color background, int y, double[] r, double[] g, double[] b) {
+		if(y < 0 || y >= height || r.length < width || g.length < width || b.length < width)
+			throw new IndexOutOfBoundsException("Ligne invalide ou tableaux trop courts !");
+		double[] intensities = intensities(toneMap);
+		boolean correctsComponents = toneMap.correctsComponents();
+		double vibrancy = toneMap.vibrancy();
+		double br = background.red(), bg = background.green(), bb = background.blue();
+		int row = y*width;
+		for(int x=0; x<width; x++) {
+			int hits = storage.hitCount(row + x);
+			if(hits == 0) {
+				r[x] = br;
+				g[x] = bg;
+				b[x] = bb;
+				continue;
+			}
+			double proportion = hits < intensities.length ? intensities[hits] : toneMap.intensity(hits, maxPoints);
+			int entry = table.entry(storage.colorIndexSum(row + x)/COLOR_INDEX_SCALE/hits);
+			if(!correctsComponents) {
+				r[x] = proportion*table.red(entry) + (1-proportion)*br;
+				g[x] = proportion*table.green(entry) + (1-proportion)*bg;
+				b[x] = proportion*table.blue(entry) + (1-proportion)*bb;
+			}
+			else {
+				// Une part (1-vibrancy) de la correction gamma porte sur chaque composante plutot que sur l'intensite
+				double linear = toneMap.linearIntensity(hits, maxPoints);
+				r[x] = vibrancy*proportion*table.red(entry) + (1-vibrancy)*toneMap.applyGamma(linear*table.red(entry)) + (1-proportion)*br;
+				g[x] = vibrancy*proportion*table.green(entry) + (1-vibrancy)*toneMap.applyGamma(linear*table.green(entry)) + (1-proportion)*bg;
+				b[x] = vibrancy*proportion*table.blue(entry) + (1-vibrancy)*toneMap.applyGamma(linear*table.blue(entry)) + (1-proportion)*bb;
+			}
+		}
 	}
+	
+	/**
+	 * Retourne la table d'intensite de cet accumulateur pour le mappage donne, calculee seulement si le dernier mappage utilise etait different.
+	 */
+	private double[] intensities(ToneMap toneMap) {
+		IntensityTable table = intensityTable;
+		if(table == null || table.toneMap != toneMap) {
+			table = new IntensityTable(toneMap, toneMap.intensityTable(maxPoints));
+			intensityTable = table;
+		}
+		return table.intensities;
+	}
+	
+	/**
+	 * La table des intensites d'un accumulateur pour un mappage donne.
+	 */
+	private static final class IntensityTable {
+		private final ToneMap toneMap;
+		private final double[] intensities;
 		
+		IntensityTable(ToneMap toneMap, double[] intensities) {
+			this.toneMap = toneMap;
+			this.intensities = intensities;
+		}
+	}
+	
+	/**
+	 * Colorie les lignes <code>from</code> a <code>to-1</code> de l'accumulateur, en divisant le travail tant qu'il reste plus de <code>{@value #PIXELS_PER_TASK}</code> cases.
+	 */
+	@SuppressWarnings("serial")
+	private final class ColorizeRows extends RecursiveAction {
+		private static final int PIXELS_PER_TASK = 1 << 14;
+		private final ToneMap toneMap;
+		private final PaletteTable table;
+		private final Color background;
+		private final int[] raster;
+		private final int from, to;
+		
+		ColorizeRows(ToneMap toneMap, PaletteTable table, Color background, int[] raster, int from, int to) {
+			this.toneMap = toneMap;
+			this.table = table;
+			this.background = background;
+			this.raster = raster;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to - from > 1 && (long) (to - from)*width > PIXELS_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ColorizeRows(toneMap, table, background, raster, from, middle), 
+						new ColorizeRows(toneMap, table, background, raster, middle, to));
+				return;
+			}
+			double[] r = new double[width], g = new double[width], b = new double[width];
+			for(int y=from; y<to; y++) {
+				linearRow(toneMap, table, background, y, r, g, b);
+				Color.packRGB(r, g, b, raster, y*width, width);
+			}
+		}
+	}
+	
 	/**
 	 * Retourne la largeur (en nombre de cases) de l'accumulateur.	
 	 * @return la largeur en <code>int</code> de l'accumulateur.
 	 */
 	public int width() {
-		return flameAcc[0].length;
+		return width;
 	}
 	
 	/**
@@ -74,22 +287,20 @@ public final class FlameAccumulator {
 	 * @return la hauteur en <code>int</code> de l'accumulateur.
 	 */
 	public int height() {
-		return flameAcc.length;
+		return height;
 	}
 	
 	/**
-	 * Retourne l'intensite de la case de l'accumulateur aux coordonnees donnees.
+	 * Retourne l'intensite de la case de l'accumulateur aux coordonnees donnees, c-a-d <code>log(hits+1)/log(maxPoints+1)</code> (voir <code>{@link ToneMap#DEFAULT}</code>).
 	 * @param x la coordonnee x de la case.
 	 * @param y la coordonnee y de la case.
 	 * @throws IndexOutOfBoundsException si l'une des coordonnees est negative ou depasse la coordonnee maximale.
 	 * @return une valeur <code>double</code> qui depend du nombre de points sur la case, par rapport au nombre maximum de points sur une case.
 	 */
 	public double intensity(int x, int y) {
-		if(x < 0 || x > width() || y < 0 || y > height())
+		if(x < 0 || x >= width || y < 0 || y >= height)
 			throw new IndexOutOfBoundsException("Coordonnees invalides !");
-		double a = Math.log(flameAcc[y][x] + 1);
-		double b = Math.log(maxPoints + 1);
-		return a/b; 
+		return ToneMap.DEFAULT.intensity(storage.hitCount(y*width + x), maxPoints);
 	}
 	
 	/**
@@ -99,49 +310,122 @@ public final class FlameAccumulator {
 	 * @return le nombre en <code>int</code> de points sur cette case.
 	 */
 	public int hitCount(int x, int y) {
-		if(x < 0 || x>width() || y < 0 || y>height())
+		if(x < 0 || x>=width || y < 0 || y>=height)
 			throw new IndexOutOfBoundsException("Coordonnées invalides!");
-		return flameAcc[y][x];
+		return storage.hitCount(y*width + x);
 	}
 	
 	/**
 	 * <p>La classe <code>FlameAccumulator.Builder</code> est une classe imbriquee qui permet de batir un {@link FlameAccumulator} de maniere incrementale.</p>
+	 * <p><code>{@link FlameAccumulator.Builder#build() build()}</code> ne copie pas le stockage : il le confie a l'accumulateur construit. 
+	 * Si le batisseur est modifie ensuite, il travaille sur une copie (l'attribut <code><b>shared</b></code> indique que le stockage appartient deja a un accumulateur).</p>
+	 * <p>Le stockage est sur le tas, sauf pour les batisseurs crees par <code>{@link FlameAccumulator.Builder#newMappedBuilder(Rectangle, int, int, File) newMappedBuilder()}</code>. <br />
+	 * Un batisseur ne peut etre utilise que par un seul fil d'execution a la fois, sauf s'il a ete cree par <code>{@link FlameAccumulator.Builder#newConcurrentBuilder(Rectangle, int, int) newConcurrentBuilder()}</code>.</p>
 	 * @see FlameTransformation
 	 * @see FlameTransformation.Builder
 	 */
 	public static class Builder {
-		private Rectangle frame;
-		private int [][] flameAcc;
-		private double[][] colorIndexSum;
-		private int height;
-		private AffineTransformation t;
+		private AccumulatorStorage storage;
+		private boolean shared;
+		private final int width, height;
+		// Les bords du cadre et les coefficients de la transformation vers les cases
+		private final double left, right, bottom, top;
+		private final double ta, tb, tc, td, te, tf;
 		
 		/**
 		 * Construit un batisseur d'accumulateur pour la region du plan delimitee par le cadre {@link Rectangle frame}, de largeur width et de hauteur height (en nombre de cases). 
 		 * @param frame le cadre qui delimite la region dans laquelle on genere la fractale.
 		 * @param width la largeur de l'accumulateur en cases.
 		 * @param height la hauteur de l'accumulateur en cases.
-		 * @throws IllegalArgumentException si la largeur ou la hauteur sont negatives ou nulles.
+		 * @throws IllegalArgumentException si la largeur ou la hauteur sont negatives ou nulles, ou si l'accumulateur a trop de cases.
 		 */
 		public Builder(Rectangle frame, int width, int height) {
-			this.height = height;
-			t = AffineTransformation.newScaling(width/frame.width(), height/frame.height()).composeWith(AffineTransformation.newTranslation(-frame.left(), -frame.bottom()));
+			this(frame, width, height, null);
+		}
+		
+		/**
+		 * Construit un batisseur d'accumulateur dont les cases sont stockees dans un fichier projete en memoire plutot que sur le tas. <br />
+		 * Convient aux tres grandes images, qui ne tiennent pas dans le tas : seule la place sur le disque limite alors leur taille, 
+		 * et le ramasse-miettes n'a jamais a parcourir les cases.
+		 * @param frame le cadre qui delimite la region dans laquelle on genere la fractale.
+		 * @param width la largeur de l'accumulateur en cases.
+		 * @param height la hauteur de l'accumulateur en cases.
+		 * @param directory le dossier dans lequel creer le fichier, ou <code>null</code> pour le dossier temporaire du systeme.
+		 * @throws IllegalArgumentException si la largeur ou la hauteur sont negatives ou nulles, ou si l'accumulateur a trop de cases.
+		 * @throws IOException si le fichier ne peut pas etre cree.
+		 * @return le nouveau batisseur.
+		 * @see AccumulatorStorage.Mapped
+		 */
+		public static Builder newMappedBuilder(Rectangle frame, int width, int height, File directory) throws IOException {
+			return new Builder(frame, width, height, new AccumulatorStorage.Mapped(cellCount(width, height), directory));
+		}
+		
+		/**
+		 * <p>Construit un batisseur d'accumulateur que plusieurs fils d'execution peuvent remplir en meme temps, sans verrou : 
+		 * <code>{@link FlameAccumulator.Builder#hit(double, double, double) hit()}</code> et <code>{@link FlameAccumulator.Builder#merge(FlameAccumulator.Builder) merge()}</code> 
+		 * peuvent etre appelees simultanement.</p>
+		 * <p>Un seul accumulateur est ainsi partage par tous les fils, au lieu d'un fragment par fil : a preferer lorsque la memoire est limitee. <br />
+		 * <code>{@link FlameAccumulator.Builder#build() build()}</code> ne doit etre appele qu'une fois que tous les fils ont termine.</p>
+		 * @param frame le cadre qui delimite la region dans laquelle on genere la fractale.
+		 * @param width la largeur de l'accumulateur en cases.
+		 * @param height la hauteur de l'accumulateur en cases.
+		 * @throws IllegalArgumentException si la largeur ou la hauteur sont negatives ou nulles, ou si l'accumulateur a trop de cases.
+		 * @return le nouveau batisseur.
+		 * @see AccumulatorStorage.Atomic
+		 * @see Flame#computeShared(Rectangle, int, int, int, int, long)
+		 */
+		public static Builder newConcurrentBuilder(Rectangle frame, int width, int height) {
+			return new Builder(frame, width, height, new AccumulatorStorage.Atomic(cellCount(width, height)));
+		}
+		
+		/**
+		 * Retourne le nombre de cases d'un accumulateur de largeur et hauteur donnees.
+		 * @throws IllegalArgumentException si la largeur ou la hauteur sont negatives ou nulles, ou si l'accumulateur a trop de cases.
+		 */
+		private static int cellCount(int width, int height) {
 			if(width <= 0 || height <= 0)
 				throw new IllegalArgumentException("La largeur et la hauteur doivent être strictement positives !");
-			this.frame = new Rectangle(frame.center(), frame.width(), frame.height());
-			this.flameAcc = new int [height][width];
-			for(int i = 0; i < height; i++) {
-				for(int j = 0; j < width; j++) {
-					flameAcc[i][j] = 0;
-				}
-			}
-			
-			this.colorIndexSum = new double [height][width];
-			for(int i=0; i<height; i++) {
-				for(int j=0; j<width; j++) {
-					colorIndexSum[i][j] = 0;
-				}
-			}
+			if((long) width*height > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("L'accumulateur a trop de cases !");
+			return width*height;
+		}
+		
+		/**
+		 * Construit un batisseur avec le stockage donne, ou un stockage sur le tas si celui-ci est <code>null</code>.
+		 */
+		private Builder(Rectangle frame, int width, int height, AccumulatorStorage storage) {
+			this.width = width;
+			this.height = height;
+			AffineTransformation t = AffineTransformation.newScaling(width/frame.width(), height/frame.height()).composeWith(AffineTransformation.newTranslation(-frame.left(), -frame.bottom()));
+			int cells = cellCount(width, height);
+			left = frame.left();
+			right = frame.right();
+			bottom = frame.bottom();
+			top = frame.top();
+			double[] coefficients = t.coefficients();
+			ta = coefficients[0];
+			tb = coefficients[1];
+			tc = coefficients[2];
+			td = coefficients[3];
+			te = coefficients[4];
+			tf = coefficients[5];
+			this.storage = storage != null ? storage : new AccumulatorStorage.Heap(cells);
+		}
+		
+		/**
+		 * Retourne la largeur de l'accumulateur en construction.
+		 * @return la largeur en cases.
+		 */
+		int width() {
+			return width;
+		}
+		
+		/**
+		 * Retourne la hauteur de l'accumulateur en construction.
+		 * @return la hauteur en cases.
+		 */
+		int height() {
+			return height;
 		}
 		
 		/**
@@ -159,23 +443,95 @@ public final class FlameAccumulator {
 		 * @see AffineTransformation#composeWith(AffineTransformation)
 		 */
 		public void hit(Point p, double c) {
-			if(frame.contains(p)) {
-				p = t.transformPoint(p); 
-				int y = (int) (height-p.y());
-				int x = (int) p.x();
-				flameAcc[y][x]++;
-				colorIndexSum[y][x] += c;
+			hit(p.x(), p.y(), c);
+		}
+		
+		/**
+		 * Comme <code>{@link FlameAccumulator.Builder#hit(Point, double) hit(Point, double)}</code>, mais pour le point de coordonnees (x, y), sans creer d'objet <code>Point</code>. <br />
+		 * Le test d'appartenance au cadre et la transformation vers les cases sont les memes que ceux de <code>{@link Rectangle#contains(Point)}</code> et <code>{@link AffineTransformation#transformPoint(Point)}</code>.
+		 * @param x la coordonnee x du point a placer.
+		 * @param y la coordonnee y du point a placer.
+		 * @param c l'index de couleur associe.
+		 */
+		public void hit(double x, double y, double c) {
+			if(x >= left && x < right && y >= bottom && y < top) {
+				if(shared)
+					unshare();
+				int row = (int) (height-(td*x + te*y + tf));
+				int col = (int) (ta*x + tb*y + tc);
+				storage.add(row*width + col, 1, (long) (c*COLOR_INDEX_SCALE));
 			}
 		}
 		
 		/**
-		 * Retourne un accumulateur contenant les points collectes jusqu'a present, avec la somme des index de couleurs.
+		 * Le nombre de points que les producteurs de ce paquetage accumulent en general avec un seul appel a <code>{@link FlameAccumulator.Builder#hitAll(double[], double[], double[], int) hitAll()}</code>.
+		 */
+		static final int BATCH_SIZE = 256;
+		
+		/**
+		 * <p>Place d'un coup les <code>n</code> premiers points des tableaux donnes, le point <code>i</code> ayant les coordonnees <code>(xs[i], ys[i])</code> et l'index de couleur <code>cs[i]</code>. <br />
+		 * Le resultat est le meme que celui de <code>n</code> appels a <code>{@link FlameAccumulator.Builder#hit(double, double, double) hit()}</code>, 
+		 * mais le cadre, la transformation et le stockage ne sont lus qu'une fois, avant une boucle sans appel de methode sur le batisseur.</p>
+		 * <p>Pour un batisseur cree par <code>{@link FlameAccumulator.Builder#newConcurrentBuilder(Rectangle, int, int) newConcurrentBuilder()}</code>, 
+		 * plusieurs fils d'execution peuvent appeler cette methode en meme temps.</p>
+		 * @param xs les coordonnees x des points.
+		 * @param ys les coordonnees y des points.
+		 * @param cs les index de couleur des points.
+		 * @param n le nombre de points a placer.
+		 * @throws IllegalArgumentException si <code>n</code> est negatif ou plus grand que la longueur d'un des tableaux.
+		 */
+		public void hitAll(double[] xs, double[] ys, double[] cs, int n) {
+			if(n < 0 || n > xs.length || n > ys.length || n > cs.length)
+				throw new IllegalArgumentException("Le nombre de points doit etre compris entre 0 et la longueur des tableaux !");
+			if(shared)
+				unshare();
+			AccumulatorStorage storage = this.storage;
+			double left = this.left, right = this.right, bottom = this.bottom, top = this.top;
+			double ta = this.ta, tb = this.tb, tc = this.tc, td = this.td, te = this.te, tf = this.tf;
+			int width = this.width, height = this.height;
+			for(int i=0; i<n; i++) {
+				double x = xs[i], y = ys[i];
+				if(x >= left && x < right && y >= bottom && y < top) {
+					int row = (int) (height-(td*x + te*y + tf));
+					int col = (int) (ta*x + tb*y + tc);
+					storage.add(row*width + col, 1, (long) (cs[i]*COLOR_INDEX_SCALE));
+				}
+			}
+		}
+		
+		/**
+		 * Ajoute a ce batisseur les points collectes par le batisseur <code>that</code>, case par case. <br />
+		 * Permet de reunir les fragments d'accumulateur calcules en parallele.
+		 * @param that le batisseur dont on ajoute les points.
+		 * @throws IllegalArgumentException si les deux batisseurs n'ont pas les memes dimensions.
+		 * @see Flame#compute(Rectangle, int, int, int, int)
+		 */
+		public void merge(Builder that) {
+			if(that.width != width || that.height != height)
+				throw new IllegalArgumentException("Les deux accumulateurs doivent avoir les memes dimensions !");
+			if(shared)
+				unshare();
+			storage.addAll(that.storage);
+		}
+		
+		/**
+		 * Copie le stockage deja confie a un accumulateur, pour pouvoir le modifier sans changer celui-ci.
+		 */
+		private void unshare() {
+			storage = storage.copy();
+			shared = false;
+		}
+		
+		/**
+		 * Retourne un accumulateur contenant les points collectes jusqu'a present, avec la somme des index de couleurs. <br />
+		 * Le stockage n'est pas copie : il ne le sera que si le batisseur est modifie par la suite.
 		 * @return le <code>FlameAccumulator</code> construit.
 		 * @see FlameAccumulator
-		 * @see FlameAccumulator#FlameAccumulator(int[][], double[][])
+		 * @see FlameAccumulator#FlameAccumulator(int, int, AccumulatorStorage)
 		 */
 		public FlameAccumulator build() {
-			return new FlameAccumulator(flameAcc, colorIndexSum);
+			shared = true;
+			return new FlameAccumulator(width, height, storage);
 		}
 	}
 }
@@ -0,0 +1,102 @@
+package ch.epfl.flamemaker.flame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ch.epfl.flamemaker.geometry2d.*;
+
+/**
+ * <p>Compare les deux facons de remplir un accumulateur depuis plusieurs fils d'execution :
+ * un fragment par fil fusionne a la fin (<code>{@link Flame#compute(Rectangle, int, int, int, int, long) compute()}</code>),
+ * ou un seul batisseur partage (<code>{@link Flame#computeShared(Rectangle, int, int, int, int, long) computeShared()}</code>).</p>
+ * <p>Deux mesures sont faites pour 1, 2, 4, ... fils : <br />
+ * le calcul complet de la fractale "Shark fin", puis des <code>hit()</code> seuls sur un petit accumulateur,
+ * ou les fils se disputent sans cesse les memes cases (le pire cas pour le batisseur partage).</p>
+ * <p>Arguments optionnels : le nombre maximal de fils (par defaut le nombre de processeurs) et la densite (par defaut 50).</p>
+ */
+public class FlameAccumulatorBenchmark {
+	private static final int RUNS = 3;
+	private static final int HOT_SIZE = 16;
+	private static final int HOT_HITS = 1 << 24;
+
+	public static void main(String[] args) throws Exception {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int density = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+		ArrayList<FlameTransformation> sharkFin = new ArrayList<FlameTransformation>();
+		sharkFin.add(new FlameTransformation(new AffineTransformation(-0.4113504, -0.7124804, -0.4, 0.7124795, -0.4113508, 0.8), new double[]{1, 0.1, 0, 0, 0, 0}));
+		sharkFin.add(new FlameTransformation(new AffineTransformation(-0.3957339, 0, -1.6, 0, -0.3957337, 0.2), new double[]{0, 0, 0, 0, 0.8, 1}));
+		sharkFin.add(new FlameTransformation(new AffineTransformation(0.4810169, 0, 1, 0, 0.4810169, 0.9), new double[]{1, 0, 0, 0, 0, 0}));
+		Flame shark = new Flame(sharkFin);
+		Rectangle frame = new Rectangle(new Point(-0.25, 0.0), 5, 4);
+
+		System.out.println("Shark fin 500x400, densite " + density);
+		for(int threads=1; threads<=maxThreads; threads*=2) {
+			long sharded = Long.MAX_VALUE, shared = Long.MAX_VALUE;
+			for(int r=0; r<RUNS; r++) {
+				long t = System.nanoTime();
+				shark.compute(frame, 500, 400, density, threads, Flame.DEFAULT_SEED);
+				sharded = Math.min(sharded, System.nanoTime() - t);
+				t = System.nanoTime();
+				shark.computeShared(frame, 500, 400, density, threads, Flame.DEFAULT_SEED);
+				shared = Math.min(shared, System.nanoTime() - t);
+			}
+			System.out.println(threads + " fil(s) : fragments " + sharded/1000000 + " ms, partage " + shared/1000000 + " ms");
+		}
+
+		System.out.println(HOT_HITS + " hit() sur " + HOT_SIZE + "x" + HOT_SIZE + " cases");
+		for(int threads=1; threads<=maxThreads; threads*=2) {
+			long sharded = Long.MAX_VALUE, shared = Long.MAX_VALUE;
+			for(int r=0; r<RUNS; r++) {
+				sharded = Math.min(sharded, hotHits(threads, false));
+				shared = Math.min(shared, hotHits(threads, true));
+			}
+			System.out.println(threads + " fil(s) : fragments " + sharded/1000000 + " ms, partage " + shared/1000000 + " ms");
+		}
+	}
+
+	/**
+	 * Repartit <code>{@value #HOT_HITS}</code> points aleatoires sur <code>threads</code> fils,
+	 * soit dans un batisseur partage, soit dans un fragment par fil fusionne a la fin, et retourne la duree en nanosecondes.
+	 */
+	private static long hotHits(int threads, final boolean shared) throws Exception {
+		final Rectangle frame = new Rectangle(new Point(0, 0), 2, 2);
+		final FlameAccumulator.Builder target = shared ? FlameAccumulator.Builder.newConcurrentBuilder(frame, HOT_SIZE, HOT_SIZE) : null;
+		final int hitsPerThread = HOT_HITS/threads;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			long t = System.nanoTime();
+			List<Future<FlameAccumulator.Builder>> results = new ArrayList<Future<FlameAccumulator.Builder>>();
+			for(int i=0; i<threads; i++) {
+				final long seed = i;
+				results.add(executor.submit(new Callable<FlameAccumulator.Builder>() {
+					@Override
+					public FlameAccumulator.Builder call() {
+						FlameAccumulator.Builder builder = shared ? target : new FlameAccumulator.Builder(frame, HOT_SIZE, HOT_SIZE);
+						SplittableRandom randy = new SplittableRandom(seed);
+						for(int k=0; k<hitsPerThread; k++) {
+							builder.hit(randy.nextDouble()*2 - 1, randy.nextDouble()*2 - 1, randy.nextDouble());
+						}
+						return builder;
+					}
+				}));
+			}
+			FlameAccumulator.Builder builder = results.get(0).get();
+			for(int i=1; i<results.size(); i++) {
+				FlameAccumulator.Builder shard = results.get(i).get();
+				if(shard != builder)
+					builder.merge(shard);
+			}
+			builder.build();
+			return System.nanoTime() - t;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package ch.epfl.flamemaker.flame;
+
+import static org.junit.Assert.*;
+import static ch.epfl.flamemaker.flame.FlameTest.newShark;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.epfl.flamemaker.color.Color;
+import ch.epfl.flamemaker.color.InterpolatedPalette;
+import ch.epfl.flamemaker.color.Palette;
+import ch.epfl.flamemaker.color.PaletteTable;
+import ch.epfl.flamemaker.geometry2d.Point;
+import ch.epfl.flamemaker.geometry2d.Rectangle;
+
+public class FlameAccumulatorTest {
+	private static final Rectangle FRAME = new Rectangle(Point.ORIGIN, 4, 2);
+	
+	@Test
+	public void testHitFillsRowsFromTheBottom() {
+		FlameAccumulator.Builder builder = new FlameAccumulator.Builder(FRAME, 4, 2);
+		builder.hit(new Point(-1.5, -0.5), 0);
+		builder.hit(new Point(1.5, 0.5), 0.5);
+		builder.hit(new Point(1.5, 0.5), 0.5);
+		builder.hit(new Point(2, 0), 0.5);
+		FlameAccumulator acc = builder.build();
+		assertEquals(4, acc.width());
+		assertEquals(2, acc.height());
+		assertEquals(1, acc.hitCount(0, 1));
+		assertEquals(2, acc.hitCount(3, 0));
+		assertEquals(0, acc.hitCount(3, 1));
+		assertEquals(1, acc.intensity(3, 0), 0);
+	}
+	
+	@Test
+	public void testBuiltAccumulatorIsNotModifiedByLaterHits() {
+		FlameAccumulator.Builder builder = new FlameAccumulator.Builder(FRAME, 4, 2);
+		builder.hit(new Point(0.5, 0.5), 0);
+		FlameAccumulator first = builder.build();
+		builder.hit(new Point(0.5, 0.5), 0);
+		FlameAccumulator second = builder.build();
+		assertEquals(1, first.hitCount(2, 0));
+		assertEquals(2, second.hitCount(2, 0));
+	}
+	
+	@Test
+	public void testMerge() {
+		FlameAccumulator.Builder a = new FlameAccumulator.Builder(FRAME, 4, 2);
+		FlameAccumulator.Builder b = new FlameAccumulator.Builder(FRAME, 4, 2);
+		a.hit(new Point(0.5, 0.5), 0);
+		b.hit(new Point(0.5, 0.5), 0);
+		b.hit(new Point(-0.5, -0.5), 0);
+		a.merge(b);
+		FlameAccumulator acc = a.build();
+		assertEquals(2, acc.hitCount(2, 0));
+		assertEquals(1, acc.hitCount(1, 1));
+	}
+	
+	@Test
+	public void testMappedBuilderMatchesHeapBuilder() throws IOException {
+		FlameAccumulator.Builder heap = new FlameAccumulator.Builder(FRAME, 40, 20);
+		FlameAccumulator.Builder mapped = FlameAccumulator.Builder.newMappedBuilder(FRAME, 40, 20, null);
+		Random random = new Random(2013);
+		for(int i=0; i<10000; i++) {
+			Point p = new Point(random.nextDouble()*5 - 2.5, random.nextDouble()*3 - 1.5);
+			double c = random.nextDouble();
+			heap.hit(p, c);
+			mapped.hit(p, c);
+		}
+		FlameAccumulator expected = heap.build();
+		FlameAccumulator actual = mapped.build();
+		for(int y=0; y<expected.height(); y++) {
+			for(int x=0; x<expected.width(); x++) {
+				assertEquals(expected.hitCount(x, y), actual.hitCount(x, y));
+				assertEquals(expected.intensity(x, y), actual.intensity(x, y), 0);
+			}
+		}
+		// La copie faite apres build() ne modifie pas l'accumulateur deja construit
+		mapped.hit(new Point(0.5, 0.5), 0);
+		assertEquals(expected.hitCount(25, 5), actual.hitCount(25, 5));
+	}
+	
+	@Test
+	public void testHitAllMatchesHit() {
+		FlameAccumulator.Builder single = new FlameAccumulator.Builder(FRAME, 40, 20);
+		FlameAccumulator.Builder batched = new FlameAccumulator.Builder(FRAME, 40, 20);
+		Random random = new Random(2013);
+		double[] xs = new double[1000], ys = new double[1000], cs = new double[1000];
+		for(int i=0; i<xs.length; i++) {
+			xs[i] = random.nextDouble()*5 - 2.5;
+			ys[i] = random.nextDouble()*3 - 1.5;
+			cs[i] = random.nextDouble();
+		}
+		// Les 10 derniers points ne doivent pas etre places
+		for(int i=0; i<990; i++) {
+			single.hit(xs[i], ys[i], cs[i]);
+		}
+		batched.hitAll(xs, ys, cs, 990);
+		FlameAccumulator expected = single.build();
+		FlameAccumulator actual = batched.build();
+		for(int y=0; y<expected.height(); y++) {
+			for(int x=0; x<expected.width(); x++) {
+				assertEquals(expected.hitCount(x, y), actual.hitCount(x, y));
+				assertEquals(expected.intensity(x, y), actual.intensity(x, y), 0);
+			}
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testHitAllRejectsTooManyPoints() {
+		new FlameAccumulator.Builder(FRAME, 4, 2).hitAll(new double[2], new double[2], new double[1], 2);
+	}
+	
+	@Test
+	public void testPackedColorMatchesColor() {
+		FlameAccumulator.Builder builder = new FlameAccumulator.Builder(FRAME, 4, 2);
+		builder.hit(new Point(-1.5, -0.5), 0);
+		builder.hit(new Point(-0.5, -0.5), 1);
+		builder.hit(new Point(0.5, 0.5), 0.3);
+		builder.hit(new Point(0.5, 0.5), 0.4);
+		FlameAccumulator acc = builder.build();
+		Palette palette = InterpolatedPalette.generateRGBPal();
+		PaletteTable table = palette.bake(PaletteTable.DEFAULT_SIZE);
+		for(int y=0; y<acc.height(); y++) {
+			for(int x=0; x<acc.width(); x++) {
+				int expected = acc.color(palette, Color.WHITE, x, y).asPackedRGB();
+				int actual = acc.packedColor(table, Color.WHITE, x, y);
+				for(int shift=0; shift<24; shift+=8) {
+					assertEquals((expected >> shift) & 0xFF, (actual >> shift) & 0xFF, 1);
+				}
+			}
+		}
+		assertEquals(acc.color(palette, Color.WHITE, 0, 1).asPackedRGB(), acc.packedColor(table, Color.WHITE, 0, 1));
+		assertEquals(Color.WHITE.asPackedRGB(), acc.packedColor(table, Color.WHITE, 3, 1));
+	}
+	
+	@Test
+	public void testColorizeMatchesPackedColor() {
+		FlameAccumulator acc = newShark().compute(new Rectangle(new Point(-0.25, 0.0), 5, 4), 300, 200, 10);
+		PaletteTable table = InterpolatedPalette.generateRGBPal().bake(PaletteTable.DEFAULT_SIZE);
+		int[] raster = new int[300*200];
+		acc.colorize(table, Color.WHITE, raster);
+		for(int y=0; y<acc.height(); y++) {
+			for(int x=0; x<acc.width(); x++) {
+				assertEquals(acc.packedColor(table, Color.WHITE, x, y), raster[y*300 + x]);
+			}
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testMergeRejectsDifferentSizes() {
+		new FlameAccumulator.Builder(FRAME, 4, 2).merge(new FlameAccumulator.Builder(FRAME, 2, 4));
+	}
+	
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testHitCountRejectsWidth() {
+		new FlameAccumulator.Builder(FRAME, 4, 2).build().hitCount(4, 0);
+	}
+}
@@ -0,0 +1,94 @@
+package ch.epfl.flamemaker.flame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ch.epfl.flamemaker.color.Palette;
+import ch.epfl.flamemaker.geometry2d.Rectangle;
+
+/**
+ * <p>La classe <code>FlameDocument</code> decrit une fractale de la bibliotheque, sous forme de donnees pures :
+ * son nom <code><b>name</b></code>, ses transformations <code><b>transformations</b></code>, son cadre <code><b>frame</b></code> et sa palette <code><b>palette</b></code>.</p>
+ * <p>Elle ne depend d'aucune classe Swing ni AWT : le rendu en ligne de commande et la lecture ou l'ecriture des bibliotheques peuvent l'utiliser sans charger l'interface graphique,
+ * qui construit ses propres modeles de liste par-dessus (<code>ch.epfl.flamemaker.gui.PresetFlame</code>).</p>
+ * <p>Une instance n'est pas modifiable.</p>
+ * @see StorableFlame
+ */
+public final class FlameDocument {
+	private final String name;
+	private final List<FlameTransformation> transformations;
+	private final Rectangle frame;
+	private final Palette palette;
+
+	/**
+	 * Construit un document avec les donnees fournies.
+	 * @param name le nom de la fractale.
+	 * @param transformations les transformations de la fractale, copiees.
+	 * @param frame le cadre de la fractale.
+	 * @param palette la palette de la fractale.
+	 * @throws IllegalArgumentException si l'un des parametres est <code>null</code>.
+	 */
+	public FlameDocument(String name, List<FlameTransformation> transformations, Rectangle frame, Palette palette) {
+		if(name == null || transformations == null || frame == null || palette == null)
+			throw new IllegalArgumentException("Le nom, les transformations, le cadre et la palette d'une fractale sont obligatoires !");
+		this.name = name;
+		this.transformations = Collections.unmodifiableList(new ArrayList<FlameTransformation>(transformations));
+		this.frame = frame;
+		this.palette = palette;
+	}
+
+	/**
+	 * Retourne le nom de la fractale.
+	 * @return le nom.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Retourne la liste des transformations de la fractale, non modifiable.
+	 * @return les transformations.
+	 */
+	public List<FlameTransformation> getTransformations() {
+		return transformations;
+	}
+
+	/**
+	 * Retourne le cadre de la fractale.
+	 * @return le cadre.
+	 */
+	public Rectangle getFrame() {
+		return frame;
+	}
+
+	/**
+	 * Retourne la palette de la fractale.
+	 * @return la palette.
+	 */
+	public Palette getPalette() {
+		return palette;
+	}
+
+	/**
+	 * Retourne un document identique, mais portant le nom donne.
+	 * @param newName le nouveau nom.
+	 * @return le document renomme.
+	 */
+	public FlameDocument withName(String newName) {
+		return new FlameDocument(newName, transformations, frame, palette);
+	}
+
+	/**
+	 * Retourne la fractale <code>{@link Flame}</code> formee des transformations.
+	 * @return la fractale.
+	 */
+	public Flame toFlame() {
+		return new Flame(transformations);
+	}
+
+	@Override
+	public String toString() {
+		return "FlameDocument [name=" + name + ", " + transformations.size() + " transformation(s), frame=" + frame + "]";
+	}
+}
@@ -0,0 +1,208 @@
+package ch.epfl.flamemaker.flame;
+
+import java.util.List;
+
+/**
+ * <p>La classe <code>FlameKernel</code> est la version "compilee" et non modifiable d'une fractale <code>{@link Flame}</code>, utilisee pour appliquer l'algorithme du chaos.</p>
+ * <p>Elle travaille directement sur des <code>double</code>, sans creer d'objet a chaque iteration : <br />
+ * les tableaux <code><b>a, b, c, d, e, f</b></code> contiennent les coefficients des composantes affines de chaque transformation. <br />
+ * les tableaux <code><b>variationStart, variationIndex, variationWeight</b></code> contiennent, a la suite, les seules variations de poids non nul de chaque transformation
+ * (celles de la transformation <code>i</code> occupent les cases <code>variationStart[i]</code> a <code>variationStart[i+1]-1</code>). <br />
+ * le tableau <code><b>colorIndexTab</b></code> contient l'index de couleur de chaque transformation.</p>
+ * <p>Les variations sont calculees exactement comme dans <code>{@link Variation#ALL_VARIATIONS}</code>, si bien que le resultat est le meme que celui de <code>{@link FlameTransformation#transformPoint(ch.epfl.flamemaker.geometry2d.Point) transformPoint()}</code>.</p>
+ * @see Flame#compile()
+ * @see FlameKernel.Walker
+ */
+public final class FlameKernel {
+	private final int size;
+	private final double[] a, b, c, d, e, f;
+	private final int[] variationStart;
+	private final int[] variationIndex;
+	private final double[] variationWeight;
+	private final double[] colorIndexTab;
+
+	/**
+	 * Compile la liste de transformations donnee.
+	 * @param ftransformations les transformations de la fractale.
+	 * @throws UnsupportedOperationException si la liste de transformations est vide.
+	 */
+	FlameKernel(List<FlameTransformation> ftransformations) {
+		if(ftransformations.size() < 1)
+			throw new UnsupportedOperationException("Impossible de generer des points si la liste de transformations est vide !");
+		size = ftransformations.size();
+		a = new double[size];
+		b = new double[size];
+		c = new double[size];
+		d = new double[size];
+		e = new double[size];
+		f = new double[size];
+		variationStart = new int[size+1];
+
+		int count = 0;
+		for(FlameTransformation ft : ftransformations) {
+			for(int j=0; j<Variation.ALL_VARIATIONS.size(); j++) {
+				if(ft.variationWeight(j) != 0)
+					count++;
+			}
+		}
+		variationIndex = new int[count];
+		variationWeight = new double[count];
+
+		int k = 0;
+		for(int i=0; i<size; i++) {
+			FlameTransformation ft = ftransformations.get(i);
+			double[] coefficients = ft.affineTransformation().coefficients();
+			a[i] = coefficients[0];
+			b[i] = coefficients[1];
+			c[i] = coefficients[2];
+			d[i] = coefficients[3];
+			e[i] = coefficients[4];
+			f[i] = coefficients[5];
+			variationStart[i] = k;
+			for(int j=0; j<Variation.ALL_VARIATIONS.size(); j++) {
+				if(ft.variationWeight(j) != 0) {
+					variationIndex[k] = j;
+					variationWeight[k] = ft.variationWeight(j);
+					k++;
+				}
+			}
+		}
+		variationStart[size] = k;
+
+		colorIndexTab = new double[size];
+		colorIndexTab[0] = 0;
+		for(int i=1; i<size; i++) {
+			if(i>1) {
+				int log2 = (int) (Math.ceil(Math.log(i))/(Math.log(2)));
+				colorIndexTab[i] = (i-((Math.pow(2, log2))/2.0))/(Math.pow(2, log2));
+			}
+			else {
+				colorIndexTab[i] = i;
+			}
+		}
+	}
+
+	/**
+	 * Retourne le nombre de transformations de la fractale compilee.
+	 * @return le nombre de transformations.
+	 */
+	public int transformationCount() {
+		return size;
+	}
+
+	/**
+	 * Retourne l'index de couleur de la transformation donnee. <br />
+	 * La premiere transformation a l'index 0, la deuxieme 1, puis 1/2, 1/4, 3/4, 1/8, ...
+	 * @param index l'index de la transformation.
+	 * @return l'index de couleur de la transformation.
+	 */
+	public double colorIndex(int index) {
+		return colorIndexTab[index];
+	}
+
+	/**
+	 * Retourne un nouveau marcheur, place a l'origine avec un index de couleur nul.
+	 * @return le nouveau <code>Walker</code>.
+	 */
+	public Walker newWalker() {
+		return new Walker();
+	}
+
+	/**
+	 * <p>La classe <code>FlameKernel.Walker</code> represente le point courant de l'algorithme du chaos : ses coordonnees <code><b>x, y</b></code> et son index de couleur <code><b>colorIndex</b></code>.</p>
+	 * <p>Un marcheur ne doit etre utilise que par un seul fil d'execution a la fois.</p>
+	 */
+	public final class Walker {
+		private double x, y, colorIndex;
+
+		private Walker() {
+			x = 0;
+			y = 0;
+			colorIndex = 0;
+		}
+
+		/**
+		 * Applique au point courant la transformation d'index donne, et met a jour l'index de couleur selon la formule <code>c = (c<sub>i</sub> + c)/2</code>.
+		 * @param i l'index de la transformation a appliquer.
+		 */
+		public void step(int i) {
+			double ax = a[i]*x + b[i]*y + c[i];
+			double ay = d[i]*x + e[i]*y + f[i];
+			double wx = 0, wy = 0;
+			for(int k=variationStart[i]; k<variationStart[i+1]; k++) {
+				double w = variationWeight[k];
+				double vx, vy;
+				switch(variationIndex[k]) {
+					// Linear
+					case 0:
+						vx = ax;
+						vy = ay;
+						break;
+					// Sinusoidal
+					case 1:
+						vx = Math.sin(ax);
+						vy = Math.sin(ay);
+						break;
+					// Spherical
+					case 2: {
+						double r2 = Math.pow(Math.sqrt(Math.pow(ax, 2) + Math.pow(ay, 2)), 2);
+						vx = ax/r2;
+						vy = ay/r2;
+						break;
+					}
+					// Swirl
+					case 3: {
+						double r2 = Math.pow(Math.sqrt(Math.pow(ax, 2) + Math.pow(ay, 2)), 2);
+						double sin = Math.sin(r2), cos = Math.cos(r2);
+						vx = ax*sin - ay*cos;
+						vy = ax*cos + ay*sin;
+						break;
+					}
+					// Horseshoe
+					case 4: {
+						double r = Math.sqrt(Math.pow(ax, 2) + Math.pow(ay, 2));
+						vx = (ax - ay)*(ax + ay)/r;
+						vy = 2*ax*ay/r;
+						break;
+					}
+					// Bubble
+					default: {
+						double r2p4 = Math.pow(Math.sqrt(Math.pow(ax, 2) + Math.pow(ay, 2)), 2)+4;
+						vx = 4*ax/r2p4;
+						vy = 4*ay/r2p4;
+						break;
+					}
+				}
+				wx += w*vx;
+				wy += w*vy;
+			}
+			x = wx;
+			y = wy;
+			colorIndex = (colorIndexTab[i] + colorIndex)/2.0;
+		}
+
+		/**
+		 * Retourne l'abscisse du point courant.
+		 * @return la coordonnee x du point courant.
+		 */
+		public double x() {
+			return x;
+		}
+
+		/**
+		 * Retourne l'ordonnee du point courant.
+		 * @return la coordonnee y du point courant.
+		 */
+		public double y() {
+			return y;
+		}
+
+		/**
+		 * Retourne l'index de couleur du point courant.
+		 * @return l'index de couleur, entre 0 et 1.
+		 */
+		public double colorIndex() {
+			return colorIndex;
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package ch.epfl.flamemaker.flame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>La classe <code>FlameLibrary</code> donne acces aux fractales d'une bibliotheque sans les decoder toutes a l'ouverture.</p>
+ * <p>Un fichier au format binaire de <code>{@link FlameLibraryFormat}</code> est copie tel quel en memoire, puis ferme :
+ * seul son index, c-a-d le nom et la position de chaque fractale, est decode a l'ouverture.
+ * Une fractale n'est decodee que lorsqu'elle est demandee par <code>{@link FlameLibrary#document(int)}</code>,
+ * et les <code><b>cacheSize</b></code> dernieres fractales demandees sont gardees en memoire (les plus anciennes sont oubliees en premier). <br />
+ * Les fichiers texte et les anciens fichiers serialises, qui n'ont pas d'index, sont entierement lus a l'ouverture.</p>
+ * <p>Une instance n'est pas modifiable et peut etre partagee entre plusieurs fils d'execution. <br />
+ * Elle ne garde aucun fichier ouvert, ni projete (<code>{@link FileChannel#map}</code>) : sous Windows, un fichier projete ne peut etre ni remplace ni supprime
+ * tant que le ramasse-miettes n'a pas libere sa projection. Le fichier peut donc etre remplace par <code>{@link FlameLibrary#save(List, File)}</code>
+ * pendant que la bibliotheque est ouverte, qui continue a donner les fractales lues a l'ouverture.</p>
+ * @see FlameLibraryFormat
+ */
+public final class FlameLibrary {
+	/**
+	 * Le nombre de fractales decodees gardees en memoire par defaut.
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 64;
+
+	private final String source;
+	private final ByteBuffer buffer;
+	private final FlameLibraryFormat.Index index;
+	private final List<FlameDocument> loaded;
+	private final Map<Integer, FlameDocument> cache;
+
+	private FlameLibrary(String source, ByteBuffer buffer, FlameLibraryFormat.Index index, List<FlameDocument> loaded, final int cacheSize) {
+		this.source = source;
+		this.buffer = buffer;
+		this.index = index;
+		this.loaded = loaded;
+		cache = new LinkedHashMap<Integer, FlameDocument>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, FlameDocument> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Ouvre la bibliotheque du fichier donne, avec un cache de <code>{@value #DEFAULT_CACHE_SIZE}</code> fractales.
+	 * @param file le fichier de la bibliotheque.
+	 * @return la bibliotheque.
+	 * @throws IOException si le fichier ne peut pas etre lu, ou n'est pas une bibliotheque de fractales valide.
+	 */
+	public static FlameLibrary open(File file) throws IOException {
+		return open(file, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Ouvre la bibliotheque du fichier donne.
+	 * @param file le fichier de la bibliotheque.
+	 * @param cacheSize le nombre de fractales decodees gardees en memoire.
+	 * @return la bibliotheque.
+	 * @throws IllegalArgumentException si <code>cacheSize</code> est negatif.
+	 * @throws IOException si le fichier ne peut pas etre lu, ou n'est pas une bibliotheque de fractales valide.
+	 */
+	public static FlameLibrary open(File file, int cacheSize) throws IOException {
+		if(cacheSize < 0)
+			throw new IllegalArgumentException("La taille du cache ne peut pas etre negative !");
+		ByteBuffer contents;
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = input.getChannel();
+			if(channel.size() < 4 || channel.size() > Integer.MAX_VALUE || readMagic(channel) != FlameLibraryFormat.MAGIC)
+				contents = null;
+			else
+				contents = readFully(channel);
+		}
+		finally {
+			input.close();
+		}
+		if(contents == null)
+			return new FlameLibrary(file.toString(), null, null, Collections.unmodifiableList(FlameLibraryFormat.read(file)), cacheSize);
+		return new FlameLibrary(file.toString(), contents, FlameLibraryFormat.readIndex(contents, file.toString()), null, cacheSize);
+	}
+
+	/**
+	 * Lit tout le contenu du fichier dans un tampon en memoire, par lectures positionnelles.
+	 */
+	private static ByteBuffer readFully(FileChannel channel) throws IOException {
+		ByteBuffer contents = ByteBuffer.allocate((int) channel.size());
+		while(contents.hasRemaining()) {
+			if(channel.read(contents, contents.position()) < 0)
+				throw new IOException("Fin de fichier inattendue !");
+		}
+		contents.flip();
+		return contents;
+	}
+
+	private static int readMagic(FileChannel channel) throws IOException {
+		ByteBuffer magic = ByteBuffer.allocate(4);
+		while(magic.hasRemaining()) {
+			if(channel.read(magic, magic.position()) < 0)
+				return 0;
+		}
+		return magic.getInt(0);
+	}
+
+	/**
+	 * Construit une bibliotheque en memoire, formee des fractales donnees.
+	 * @param documents les fractales.
+	 * @return la bibliotheque.
+	 */
+	public static FlameLibrary of(List<FlameDocument> documents) {
+		return new FlameLibrary("memoire", null, null, Collections.unmodifiableList(new ArrayList<FlameDocument>(documents)), 0);
+	}
+
+	/**
+	 * Ecrit les fractales au format binaire dans un fichier temporaire, puis le renomme en <code>file</code>. <br />
+	 * Une bibliotheque ouverte sur l'ancien fichier reste lisible, et le fichier n'est jamais a moitie ecrit : 
+	 * le fichier temporaire est force sur le disque avant d'etre renomme, meme une panne du systeme laisse l'ancien ou le nouveau contenu.
+	 * @param documents les fractales a ecrire, dans l'ordre.
+	 * @param file le fichier de la bibliotheque.
+	 * @throws IOException si le fichier ne peut pas etre ecrit.
+	 */
+	public static void save(List<FlameDocument> documents, File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			FlameLibraryFormat.write(documents, temporary);
+			try {
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temporary.toPath());
+		}
+	}
+
+	/**
+	 * Retourne le nombre de fractales de la bibliotheque.
+	 * @return le nombre de fractales.
+	 */
+	public int size() {
+		return loaded != null ? loaded.size() : index.size();
+	}
+
+	/**
+	 * Retourne le nom d'une fractale, sans la decoder.
+	 * @param i le numero de la fractale.
+	 * @return le nom de la fractale.
+	 * @throws IndexOutOfBoundsException si la fractale n'existe pas.
+	 */
+	public String name(int i) {
+		checkIndex(i);
+		return loaded != null ? loaded.get(i).getName() : index.names[i];
+	}
+
+	/**
+	 * Retourne une fractale, decodee au premier appel puis gardee dans le cache.
+	 * @param i le numero de la fractale.
+	 * @return la fractale.
+	 * @throws IndexOutOfBoundsException si la fractale n'existe pas.
+	 * @throws IOException si l'enregistrement de la fractale n'est pas valide.
+	 */
+	public FlameDocument document(int i) throws IOException {
+		checkIndex(i);
+		if(loaded != null)
+			return loaded.get(i);
+		synchronized(cache) {
+			FlameDocument document = cache.get(i);
+			if(document != null)
+				return document;
+		}
+		FlameDocument document = FlameLibraryFormat.readRecord(buffer, index, i, source);
+		synchronized(cache) {
+			cache.put(i, document);
+		}
+		return document;
+	}
+
+	/**
+	 * Retourne toutes les fractales de la bibliotheque, dans l'ordre. Celles qui ne sont pas dans le cache sont decodees, sans y etre ajoutees.
+	 * @return la liste des fractales.
+	 * @throws IOException si l'enregistrement d'une fractale n'est pas valide.
+	 */
+	public List<FlameDocument> documents() throws IOException {
+		if(loaded != null)
+			return loaded;
+		List<FlameDocument> documents = new ArrayList<FlameDocument>(size());
+		for(int i=0; i<size(); i++) {
+			FlameDocument document;
+			synchronized(cache) {
+				document = cache.get(i);
+			}
+			documents.add(document != null ? document : FlameLibraryFormat.readRecord(buffer, index, i, source));
+		}
+		return documents;
+	}
+
+	/**
+	 * Retourne le nombre de fractales actuellement gardees dans le cache.
+	 */
+	int cachedCount() {
+		synchronized(cache) {
+			return cache.size();
+		}
+	}
+
+	private void checkIndex(int i) {
+		if(i < 0 || i >= size())
+			throw new IndexOutOfBoundsException("La fractale " + i + " n'existe pas dans la bibliotheque " + source + " !");
+	}
+
+	@Override
+	public String toString() {
+		return "FlameLibrary [" + source + ", " + size() + " fractale(s)]";
+	}
+}
@@ -0,0 +1,465 @@
+package ch.epfl.flamemaker.flame;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.epfl.flamemaker.color.Color;
+import ch.epfl.flamemaker.color.InterpolatedPalette;
+import ch.epfl.flamemaker.color.Palette;
+import ch.epfl.flamemaker.color.RandomPalette;
+import ch.epfl.flamemaker.geometry2d.AffineTransformation;
+import ch.epfl.flamemaker.geometry2d.Point;
+import ch.epfl.flamemaker.geometry2d.Rectangle;
+
+/**
+ * <p>La classe <code>FlameLibraryFormat</code> lit et ecrit les bibliotheques de fractales (<code>{@link FlameDocument}</code>) dans un format binaire compact et versionne,
+ * independant de la structure des classes, ainsi que dans une forme texte equivalente.</p>
+ * <p>Le format binaire (entiers et reels poids fort en premier) commence par un en-tete : <br />
+ * <code>int</code> le nombre magique <code>{@value #MAGIC}</code> ("FLIB"), <code>short</code> la version (<code>{@value #VERSION}</code>),
+ * <code>short</code> le nombre de variations par transformation, <code>int</code> le nombre de fractales. <br />
+ * Suit l'index, avec pour chaque fractale : <code>long</code> la position de son enregistrement dans le fichier, <code>int</code> sa longueur,
+ * puis son nom (<code>short</code> le nombre d'octets, et le nom en UTF-8). <br />
+ * Chaque enregistrement contient enfin : le cadre (<code>double</code> centre x, centre y, largeur, hauteur),
+ * la palette (<code>int</code> le nombre de couleurs, puis rouge, vert et bleu de chaque couleur en <code>double</code>),
+ * et les transformations (<code>int</code> leur nombre, puis pour chacune les six coefficients affines <code>a..f</code> et les poids des variations, en <code>double</code>).</p>
+ * <p>L'index permet de connaitre les noms des fractales et de lire un seul enregistrement sans decoder le reste du fichier.
+ * Les palettes qui ne sont pas des interpolations d'une liste de couleurs sont echantillonnees en <code>{@value #SAMPLED_COLORS}</code> couleurs.</p>
+ * <p>La forme texte commence par la ligne <code>flamelibrary 1</code>, puis chaque fractale occupe un bloc de lignes :
+ * <code>flame</code> suivi du nom, <code>frame</code>, <code>palette</code> et une ligne <code>transformation</code> par transformation, suivis des memes nombres que le format binaire,
+ * et enfin <code>end</code>. Les reels y sont ecrits sans perte de precision.</p>
+ * <p><code>{@link FlameLibraryFormat#read(File)}</code> reconnait les deux formes, ainsi que les anciens fichiers ecrits par serialisation de <code>{@link StorableFlame}</code>.</p>
+ */
+public final class FlameLibraryFormat {
+	/**
+	 * Le nombre magique au debut des fichiers binaires : "FLIB" en ASCII.
+	 */
+	public static final int MAGIC = 0x464C4942;
+	/**
+	 * La version du format ecrite par cette classe.
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * La premiere ligne de la forme texte.
+	 */
+	static final String TEXT_HEADER = "flamelibrary " + VERSION;
+	/**
+	 * Le nombre de couleurs echantillonnees pour une palette qui n'est pas une liste de couleurs.
+	 */
+	static final int SAMPLED_COLORS = 256;
+
+	private static final int HEADER_SIZE = 12;
+	// La taille minimale d'une entree de l'index : position, longueur et longueur du nom (qui peut etre vide)
+	private static final int INDEX_ENTRY_SIZE = 14;
+	private static final short SERIALIZATION_MAGIC = (short) 0xACED;
+
+	private FlameLibraryFormat() {}
+
+	/**
+	 * Ecrit la bibliotheque dans le fichier donne, au format binaire. <br />
+	 * Le contenu est force sur le disque avant que le fichier ne soit ferme : un fichier renomme ensuite ne peut pas se retrouver vide ou tronque apres une panne.
+	 * @param documents les fractales a ecrire, dans l'ordre.
+	 * @param file le fichier dans lequel on ecrit.
+	 * @throws IOException si le fichier ne peut pas etre ecrit.
+	 */
+	public static void write(List<FlameDocument> documents, File file) throws IOException {
+		FileOutputStream stream = new FileOutputStream(file);
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+		try {
+			write(documents, output);
+			output.flush();
+			stream.getFD().sync();
+		}
+		finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Ecrit la bibliotheque dans le flot donne, au format binaire.
+	 */
+	static void write(List<FlameDocument> documents, DataOutputStream output) throws IOException {
+		int variations = Variation.ALL_VARIATIONS.size();
+		byte[][] names = new byte[documents.size()][];
+		List<List<Color>> palettes = new ArrayList<List<Color>>(documents.size());
+		long offset = HEADER_SIZE;
+		for(int i=0; i<documents.size(); i++) {
+			names[i] = documents.get(i).getName().getBytes(StandardCharsets.UTF_8);
+			if(names[i].length > 0xFFFF)
+				throw new IllegalArgumentException("Le nom de la fractale " + (i+1) + " est trop long !");
+			palettes.add(colors(documents.get(i).getPalette()));
+			offset += 8 + 4 + 2 + names[i].length;
+		}
+
+		output.writeInt(MAGIC);
+		output.writeShort(VERSION);
+		output.writeShort(variations);
+		output.writeInt(documents.size());
+		for(int i=0; i<documents.size(); i++) {
+			int length = recordLength(palettes.get(i).size(), documents.get(i).getTransformations().size(), variations);
+			output.writeLong(offset);
+			output.writeInt(length);
+			output.writeShort(names[i].length);
+			output.write(names[i]);
+			offset += length;
+		}
+		for(int i=0; i<documents.size(); i++) {
+			FlameDocument document = documents.get(i);
+			Rectangle frame = document.getFrame();
+			output.writeDouble(frame.center().x());
+			output.writeDouble(frame.center().y());
+			output.writeDouble(frame.width());
+			output.writeDouble(frame.height());
+			output.writeInt(palettes.get(i).size());
+			for(Color color : palettes.get(i)) {
+				output.writeDouble(color.red());
+				output.writeDouble(color.green());
+				output.writeDouble(color.blue());
+			}
+			output.writeInt(document.getTransformations().size());
+			for(FlameTransformation transformation : document.getTransformations()) {
+				for(double coefficient : transformation.affineTransformation().coefficients()) {
+					output.writeDouble(coefficient);
+				}
+				for(int j=0; j<variations; j++) {
+					output.writeDouble(transformation.variationWeight(j));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Retourne la longueur en octets d'un enregistrement.
+	 */
+	private static int recordLength(int colors, int transformations, int variations) {
+		return 8*4 + 4 + 8*3*colors + 4 + 8*(6 + variations)*transformations;
+	}
+
+	/**
+	 * Retourne la liste des couleurs a enregistrer pour la palette donnee.
+	 */
+	private static List<Color> colors(Palette palette) {
+		if(palette instanceof InterpolatedPalette)
+			return ((InterpolatedPalette) palette).colors();
+		if(palette instanceof RandomPalette)
+			return ((RandomPalette) palette).colors();
+		List<Color> colors = new ArrayList<Color>(SAMPLED_COLORS);
+		for(int i=0; i<SAMPLED_COLORS; i++) {
+			colors.add(palette.colorForIndex(i/(double) (SAMPLED_COLORS - 1)));
+		}
+		return colors;
+	}
+
+	/**
+	 * Ecrit la bibliotheque sous forme texte.
+	 * @param documents les fractales a ecrire, dans l'ordre.
+	 * @param writer la destination du texte, qui n'est pas fermee.
+	 * @throws IOException si le texte ne peut pas etre ecrit.
+	 */
+	public static void writeText(List<FlameDocument> documents, Writer writer) throws IOException {
+		StringBuilder text = new StringBuilder(TEXT_HEADER).append('\n');
+		for(FlameDocument document : documents) {
+			text.append("flame ").append(escape(document.getName())).append('\n');
+			Rectangle frame = document.getFrame();
+			text.append("frame ").append(frame.center().x()).append(' ').append(frame.center().y()).append(' ')
+				.append(frame.width()).append(' ').append(frame.height()).append('\n');
+			text.append("palette");
+			for(Color color : colors(document.getPalette())) {
+				text.append(' ').append(color.red()).append(' ').append(color.green()).append(' ').append(color.blue());
+			}
+			text.append('\n');
+			for(FlameTransformation transformation : document.getTransformations()) {
+				text.append("transformation");
+				for(double coefficient : transformation.affineTransformation().coefficients()) {
+					text.append(' ').append(coefficient);
+				}
+				for(int j=0; j<Variation.ALL_VARIATIONS.size(); j++) {
+					text.append(' ').append(transformation.variationWeight(j));
+				}
+				text.append('\n');
+			}
+			text.append("end\n");
+			writer.write(text.toString());
+			text.setLength(0);
+		}
+	}
+
+	/**
+	 * Lit une bibliotheque de fractales : au format binaire, sous forme texte, ou ecrite par serialisation de <code>{@link StorableFlame}</code>.
+	 * @param file le fichier a lire.
+	 * @return la liste des fractales, dans l'ordre du fichier.
+	 * @throws IOException si le fichier ne peut pas etre lu, ou n'est pas une bibliotheque de fractales valide.
+	 */
+	public static List<FlameDocument> read(File file) throws IOException {
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		if(bytes.length >= 4 && buffer.getInt(0) == MAGIC)
+			return read(buffer, file.toString());
+		if(bytes.length >= 2 && buffer.getShort(0) == SERIALIZATION_MAGIC)
+			return StorableFlame.readList(file);
+		if(startsWith(bytes, "flamelibrary"))
+			return readText(new StringReader(new String(bytes, StandardCharsets.UTF_8)));
+		throw new IOException("Le fichier " + file + " n'est pas une bibliotheque de fractales !");
+	}
+
+	private static boolean startsWith(byte[] bytes, String prefix) {
+		byte[] expected = prefix.getBytes(StandardCharsets.US_ASCII);
+		if(bytes.length < expected.length)
+			return false;
+		for(int i=0; i<expected.length; i++) {
+			if(bytes[i] != expected[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Lit toutes les fractales d'une bibliotheque au format binaire.
+	 * @param buffer le contenu du fichier, depuis son debut.
+	 * @param source le nom du fichier, pour les messages d'erreur.
+	 */
+	static List<FlameDocument> read(ByteBuffer buffer, String source) throws IOException {
+		Index index = readIndex(buffer, source);
+		List<FlameDocument> documents = new ArrayList<FlameDocument>(index.size());
+		for(int i=0; i<index.size(); i++) {
+			documents.add(readRecord(buffer, index, i, source));
+		}
+		return documents;
+	}
+
+	/**
+	 * Lit l'en-tete et l'index d'une bibliotheque au format binaire.
+	 * @param buffer le contenu du fichier, depuis son debut.
+	 * @param source le nom du fichier, pour les messages d'erreur.
+	 * @return l'index de la bibliotheque.
+	 * @throws IOException si l'en-tete ou l'index n'est pas valide.
+	 */
+	static Index readIndex(ByteBuffer buffer, String source) throws IOException {
+		try {
+			if(buffer.getInt(0) != MAGIC)
+				throw new IOException("Le fichier " + source + " n'est pas une bibliotheque de fractales !");
+			int version = buffer.getShort(4) & 0xFFFF;
+			if(version != VERSION)
+				throw new IOException("Le fichier " + source + " est au format " + version + ", que cette version du programme ne sait pas lire !");
+			int variations = buffer.getShort(6) & 0xFFFF;
+			int count = buffer.getInt(8);
+			if(count < 0)
+				throw new IOException("Le fichier " + source + " est corrompu (nombre de fractales negatif) !");
+			// Verifie avant d'allouer l'index : un nombre corrompu ne doit pas epuiser la memoire
+			if(count > (buffer.limit() - HEADER_SIZE)/INDEX_ENTRY_SIZE)
+				throw new IOException("Le fichier " + source + " est corrompu (" + count + " fractales annoncees, l'index ne peut pas les contenir) !");
+			Index index = new Index(variations, count);
+			int position = HEADER_SIZE;
+			for(int i=0; i<count; i++) {
+				index.offsets[i] = buffer.getLong(position);
+				index.lengths[i] = buffer.getInt(position + 8);
+				int nameLength = buffer.getShort(position + 12) & 0xFFFF;
+				byte[] name = new byte[nameLength];
+				ByteBuffer slice = buffer.duplicate();
+				slice.position(position + INDEX_ENTRY_SIZE);
+				slice.get(name);
+				index.names[i] = new String(name, StandardCharsets.UTF_8);
+				if(index.offsets[i] < 0 || index.lengths[i] < 0 || index.offsets[i] + index.lengths[i] > buffer.limit())
+					throw new IOException("Le fichier " + source + " est corrompu (fractale " + (i+1) + " hors du fichier) !");
+				position += INDEX_ENTRY_SIZE + nameLength;
+			}
+			return index;
+		} catch(IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Le fichier " + source + " est corrompu (index tronque) !", e);
+		}
+	}
+
+	/**
+	 * Decode l'enregistrement d'index donne.
+	 * @param buffer le contenu du fichier, depuis son debut ; sa position n'est pas modifiee.
+	 * @param index l'index de la bibliotheque.
+	 * @param i le numero de la fractale.
+	 * @param source le nom du fichier, pour les messages d'erreur.
+	 * @return la fractale.
+	 * @throws IOException si l'enregistrement n'est pas valide.
+	 */
+	static FlameDocument readRecord(ByteBuffer buffer, Index index, int i, String source) throws IOException {
+		ByteBuffer record = buffer.duplicate();
+		try {
+			record.limit((int) (index.offsets[i] + index.lengths[i]));
+			record.position((int) index.offsets[i]);
+			Rectangle frame = new Rectangle(new Point(record.getDouble(), record.getDouble()), record.getDouble(), record.getDouble());
+			int colorCount = record.getInt();
+			if(colorCount < 0 || colorCount > record.remaining()/24)
+				throw new IOException("Le fichier " + source + " est corrompu (palette de la fractale " + (i+1) + ") !");
+			List<Color> colors = new ArrayList<Color>(colorCount);
+			for(int c=0; c<colorCount; c++) {
+				colors.add(new Color(record.getDouble(), record.getDouble(), record.getDouble()));
+			}
+			int transformationCount = record.getInt();
+			if(transformationCount < 0 || transformationCount > record.remaining()/(8*(6 + index.variations)))
+				throw new IOException("Le fichier " + source + " est corrompu (transformations de la fractale " + (i+1) + ") !");
+			List<FlameTransformation> transformations = new ArrayList<FlameTransformation>(transformationCount);
+			double[] stored = new double[index.variations];
+			for(int t=0; t<transformationCount; t++) {
+				AffineTransformation affine = new AffineTransformation(record.getDouble(), record.getDouble(), record.getDouble(),
+						record.getDouble(), record.getDouble(), record.getDouble());
+				for(int j=0; j<stored.length; j++) {
+					stored[j] = record.getDouble();
+				}
+				transformations.add(new FlameTransformation(affine, weights(stored, source)));
+			}
+			return new FlameDocument(index.names[i], transformations, frame, new InterpolatedPalette(colors));
+		} catch(IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Le fichier " + source + " est corrompu (fractale " + (i+1) + ") !", e);
+		}
+	}
+
+	/**
+	 * Adapte les poids lus au nombre actuel de variations : les poids manquants sont nuls, les poids en trop doivent l'etre.
+	 */
+	private static double[] weights(double[] stored, String source) throws IOException {
+		double[] weights = new double[Variation.ALL_VARIATIONS.size()];
+		for(int j=0; j<stored.length; j++) {
+			if(j < weights.length)
+				weights[j] = stored[j];
+			else if(stored[j] != 0)
+				throw new IOException("Le fichier " + source + " utilise des variations inconnues de cette version du programme !");
+		}
+		return weights;
+	}
+
+	/**
+	 * Lit une bibliotheque sous forme texte.
+	 * @param reader la source du texte, qui n'est pas fermee.
+	 * @return la liste des fractales, dans l'ordre du texte.
+	 * @throws IOException si le texte ne peut pas etre lu, ou n'est pas une bibliotheque de fractales valide.
+	 */
+	public static List<FlameDocument> readText(Reader reader) throws IOException {
+		BufferedReader lines = new BufferedReader(reader);
+		String line = lines.readLine();
+		if(line == null || !line.trim().equals(TEXT_HEADER))
+			throw new IOException("Le texte ne commence pas par \"" + TEXT_HEADER + "\" !");
+		List<FlameDocument> documents = new ArrayList<FlameDocument>();
+		int lineNumber = 1;
+		String name = null;
+		Rectangle frame = null;
+		List<Color> colors = null;
+		List<FlameTransformation> transformations = null;
+		while((line = lines.readLine()) != null) {
+			lineNumber++;
+			// Seul le mot-cle est debarrasse des espaces : ceux d'un nom font partie du nom
+			String raw = line;
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#"))
+				continue;
+			try {
+				if(line.startsWith("flame ") || line.equals("flame")) {
+					if(name != null)
+						throw new IOException("il manque la ligne \"end\" de la fractale " + name);
+					String rest = raw.substring(raw.indexOf("flame") + 5);
+					name = unescape(rest.isEmpty() ? rest : rest.substring(1));
+					frame = null;
+					colors = new ArrayList<Color>();
+					transformations = new ArrayList<FlameTransformation>();
+					continue;
+				}
+				if(name == null)
+					throw new IOException("ligne en dehors d'une fractale");
+				String[] tokens = line.split("\\s+");
+				double[] values = new double[tokens.length - 1];
+				for(int k=0; k<values.length; k++) {
+					values[k] = Double.parseDouble(tokens[k+1]);
+				}
+				switch(tokens[0]) {
+					case "frame":
+						if(values.length != 4)
+							throw new IOException("un cadre a quatre nombres");
+						frame = new Rectangle(new Point(values[0], values[1]), values[2], values[3]);
+						break;
+					case "palette":
+						if(values.length % 3 != 0)
+							throw new IOException("une couleur a trois composantes");
+						for(int k=0; k<values.length; k+=3) {
+							colors.add(new Color(values[k], values[k+1], values[k+2]));
+						}
+						break;
+					case "transformation":
+						if(values.length < 6)
+							throw new IOException("une transformation a au moins six coefficients");
+						double[] stored = new double[values.length - 6];
+						System.arraycopy(values, 6, stored, 0, stored.length);
+						transformations.add(new FlameTransformation(new AffineTransformation(values[0], values[1], values[2], values[3], values[4], values[5]),
+								weights(stored, "texte")));
+						break;
+					case "end":
+						if(frame == null)
+							throw new IOException("il manque le cadre de la fractale " + name);
+						documents.add(new FlameDocument(name, transformations, frame, new InterpolatedPalette(colors)));
+						name = null;
+						break;
+					default:
+						throw new IOException("mot-cle inconnu " + tokens[0]);
+				}
+			} catch(IOException | IllegalArgumentException e) {
+				throw new IOException("Ligne " + lineNumber + " invalide : " + e.getMessage(), e);
+			}
+		}
+		if(name != null)
+			throw new IOException("Il manque la ligne \"end\" de la fractale " + name + " !");
+		return documents;
+	}
+
+	/**
+	 * Echappe les barres obliques inverses et les retours a la ligne d'un nom.
+	 */
+	private static String escape(String name) {
+		return name.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String unescape(String name) {
+		StringBuilder result = new StringBuilder(name.length());
+		for(int i=0; i<name.length(); i++) {
+			char c = name.charAt(i);
+			if(c == '\\' && i+1 < name.length()) {
+				char next = name.charAt(++i);
+				result.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+			}
+			else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * L'index d'une bibliotheque au format binaire : le nom, la position et la longueur de l'enregistrement de chaque fractale.
+	 */
+	static final class Index {
+		final int variations;
+		final String[] names;
+		final long[] offsets;
+		final int[] lengths;
+
+		Index(int variations, int count) {
+			this.variations = variations;
+			names = new String[count];
+			offsets = new long[count];
+			lengths = new int[count];
+		}
+
+		/**
+		 * Retourne le nombre de fractales de la bibliotheque.
+		 */
+		int size() {
+			return names.length;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package ch.epfl.flamemaker.flame;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import ch.epfl.flamemaker.color.Color;
+import ch.epfl.flamemaker.color.RandomPalette;
+import ch.epfl.flamemaker.geometry2d.Point;
+import ch.epfl.flamemaker.geometry2d.Rectangle;
+
+public class FlameLibraryFormatTest {
+	private static List<FlameDocument> newLibrary() {
+		List<FlameDocument> documents = new ArrayList<FlameDocument>();
+		documents.add(FlameTest.newSharkDocument("Shark"));
+		documents.add(new FlameDocument("Requin \u00e9t\u00e9\n2", FlameTest.newSharkTransformations().subList(0, 2), new Rectangle(new Point(0.1, 0.1), 3, 3), new RandomPalette(5)));
+		return documents;
+	}
+
+	private static void assertSameDocuments(List<FlameDocument> expected, List<FlameDocument> actual) {
+		assertEquals(expected.size(), actual.size());
+		for(int i=0; i<expected.size(); i++) {
+			FlameDocument e = expected.get(i), a = actual.get(i);
+			assertEquals(e.getName(), a.getName());
+			assertEquals(e.getFrame().toString(), a.getFrame().toString());
+			assertEquals(e.getTransformations().size(), a.getTransformations().size());
+			for(int t=0; t<e.getTransformations().size(); t++) {
+				FlameTransformation et = e.getTransformations().get(t), at = a.getTransformations().get(t);
+				assertArrayEquals(et.affineTransformation().coefficients(), at.affineTransformation().coefficients(), 0);
+				for(int j=0; j<Variation.ALL_VARIATIONS.size(); j++) {
+					assertEquals(et.variationWeight(j), at.variationWeight(j), 0);
+				}
+			}
+			for(double index : new double[] { 0, 0.3, 0.5, 1 }) {
+				assertEquals(e.getPalette().colorForIndex(index).toString(), a.getPalette().colorForIndex(index).toString());
+			}
+		}
+	}
+
+	@Test
+	public void testBinaryRoundTrip() throws IOException {
+		List<FlameDocument> documents = newLibrary();
+		File file = File.createTempFile("flamelist", ".sav");
+		try {
+			FlameLibraryFormat.write(documents, file);
+			assertSameDocuments(documents, FlameLibraryFormat.read(file));
+
+			// Un enregistrement se lit seul, grace a l'index
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			FlameLibraryFormat.Index index = FlameLibraryFormat.readIndex(buffer, file.toString());
+			assertEquals(2, index.size());
+			assertEquals("Shark", index.names[0]);
+			assertSameDocuments(documents.subList(1, 2), Arrays.asList(FlameLibraryFormat.readRecord(buffer, index, 1, file.toString())));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testTextRoundTrip() throws IOException {
+		List<FlameDocument> documents = newLibrary();
+		StringWriter writer = new StringWriter();
+		FlameLibraryFormat.writeText(documents, writer);
+		assertTrue(writer.toString().startsWith(FlameLibraryFormat.TEXT_HEADER + "\nflame Shark\n"));
+		assertSameDocuments(documents, FlameLibraryFormat.readText(new StringReader(writer.toString())));
+	}
+
+	@Test
+	public void testTextKeepsSpacesAroundNames() throws IOException {
+		List<FlameDocument> documents = Arrays.asList(FlameTest.newSharkDocument("  shark  "));
+		StringWriter writer = new StringWriter();
+		FlameLibraryFormat.writeText(documents, writer);
+		List<FlameDocument> read = FlameLibraryFormat.readText(new StringReader(writer.toString()));
+		assertEquals("  shark  ", read.get(0).getName());
+		assertSameDocuments(documents, read);
+	}
+
+	@Test
+	public void testReadRecognizesLegacyAndTextFiles() throws IOException {
+		List<FlameDocument> documents = newLibrary();
+		File file = File.createTempFile("flamelist", ".sav");
+		try {
+			ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(file));
+			for(FlameDocument document : documents) {
+				output.writeObject(new StorableFlame(document));
+			}
+			output.close();
+			assertSameDocuments(documents, FlameLibraryFormat.read(file));
+
+			StringWriter writer = new StringWriter();
+			FlameLibraryFormat.writeText(documents, writer);
+			Files.write(file.toPath(), writer.toString().getBytes("UTF-8"));
+			assertSameDocuments(documents, FlameLibraryFormat.read(file));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testMissingVariationsAreZero() throws IOException {
+		String text = FlameLibraryFormat.TEXT_HEADER + "\nflame Lineaire\nframe 0 0 2 2\npalette 0 0 0 1 1 1\ntransformation 1 0 0 0 1 0 0.5\nend\n";
+		FlameDocument document = FlameLibraryFormat.readText(new StringReader(text)).get(0);
+		FlameTransformation transformation = document.getTransformations().get(0);
+		assertEquals(0.5, transformation.variationWeight(0), 0);
+		for(int j=1; j<Variation.ALL_VARIATIONS.size(); j++) {
+			assertEquals(0, transformation.variationWeight(j), 0);
+		}
+		assertEquals(new Color(1, 1, 1).toString(), document.getPalette().colorForIndex(1).toString());
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncatedFileIsRejected() throws IOException {
+		File file = File.createTempFile("flamelist", ".sav");
+		try {
+			FlameLibraryFormat.write(newLibrary(), file);
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 10));
+			FlameLibraryFormat.read(file);
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnknownVersionIsRejected() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(12);
+		buffer.putInt(FlameLibraryFormat.MAGIC).putShort((short) 99).putShort((short) 6).putInt(0);
+		FlameLibraryFormat.readIndex(buffer, "test");
+	}
+
+	@Test(expected = IOException.class)
+	public void testCorruptCountIsRejected() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(12 + 3*14);
+		buffer.putInt(FlameLibraryFormat.MAGIC).putShort((short) FlameLibraryFormat.VERSION).putShort((short) 6).putInt(Integer.MAX_VALUE);
+		FlameLibraryFormat.readIndex(buffer, "test");
+	}
+}
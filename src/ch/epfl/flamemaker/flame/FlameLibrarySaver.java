@@ -0,0 +1,124 @@
+package ch.epfl.flamemaker.flame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>La classe <code>FlameLibrarySaver</code> enregistre une bibliotheque de fractales en arriere-plan, sur un fil d'execution dedie :
+ * <code>{@link FlameLibrarySaver#save(List)}</code> rend la main immediatement, sans jamais attendre le disque.</p>
+ * <p>Seule la derniere liste demandee compte : si plusieurs listes sont demandees pendant une ecriture, une seule ecriture suit, avec la plus recente.
+ * Chaque ecriture passe par <code>{@link FlameLibrary#save(List, File)}</code>, qui remplace le fichier d'un coup :
+ * si le programme s'arrete pendant l'ecriture, le fichier garde son contenu precedent. <br />
+ * Chaque ecriture reecrit toute la bibliotheque : il n'y a volontairement pas de journal de modifications ajoutees au fichier,
+ * le remplacement d'un seul coup suffisant deja a ne jamais perdre la bibliotheque, et une ecriture complete ne coutant que quelques dizaines de millisecondes, hors du fil de Swing.</p>
+ * <p>Les listes donnees ne doivent plus etre modifiees. Leurs elements peuvent etre decodes a la demande, sur le fil d'ecriture,
+ * et lever <code>{@link UncheckedIOException}</code> s'ils ne peuvent pas l'etre. Toute autre exception levee pendant l'ecriture est aussi rapportee
+ * par <code>{@link FlameLibrarySaver#flush()}</code>, enveloppee dans une <code>{@link IOException}</code>.</p>
+ */
+public final class FlameLibrarySaver {
+	private final File file;
+	private final ExecutorService executor;
+	private final AtomicReference<List<FlameDocument>> pending = new AtomicReference<List<FlameDocument>>();
+	private volatile IOException lastError;
+
+	private final Runnable writer = new Runnable() {
+		@Override
+		public void run() {
+			List<FlameDocument> documents = pending.getAndSet(null);
+			if(documents == null)
+				return;
+			try {
+				FlameLibrary.save(documents, file);
+				lastError = null;
+			} catch(IOException e) {
+				lastError = e;
+				e.printStackTrace();
+			} catch(UncheckedIOException e) {
+				lastError = e.getCause();
+				e.printStackTrace();
+			} catch(RuntimeException e) {
+				// P.ex. un nom trop long pour le format binaire : l'echec doit etre signale par flush() comme une erreur d'ecriture
+				lastError = new IOException("L'enregistrement de " + file + " a echoue !", e);
+				e.printStackTrace();
+			}
+		}
+	};
+
+	/**
+	 * Construit un enregistreur pour le fichier donne.
+	 * @param file le fichier de la bibliotheque.
+	 */
+	public FlameLibrarySaver(File file) {
+		this.file = file;
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "FlameLibrarySaver " + FlameLibrarySaver.this.file.getName());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Retourne le fichier de la bibliotheque.
+	 * @return le fichier.
+	 */
+	public File file() {
+		return file;
+	}
+
+	/**
+	 * Demande l'enregistrement de la liste donnee, qui remplace toute liste pas encore ecrite.
+	 * @param documents les fractales a enregistrer, dans l'ordre.
+	 */
+	public void save(List<FlameDocument> documents) {
+		if(pending.getAndSet(documents) == null)
+			executor.execute(writer);
+	}
+
+	/**
+	 * Attend que la derniere liste demandee soit ecrite.
+	 * @throws IOException si la derniere ecriture a echoue.
+	 * @throws InterruptedException si le fil est interrompu pendant l'attente.
+	 */
+	public void flush() throws IOException, InterruptedException {
+		try {
+			executor.submit(writer).get();
+		} catch(ExecutionException e) {
+			throw new IOException("L'enregistrement de " + file + " a echoue !", e.getCause());
+		}
+		IOException error = lastError;
+		if(error != null)
+			throw error;
+	}
+
+	/**
+	 * Retourne l'erreur de la derniere ecriture, ou <code>null</code> si elle a reussi.
+	 * @return l'erreur de la derniere ecriture.
+	 */
+	public IOException lastError() {
+		return lastError;
+	}
+
+	/**
+	 * Ecrit la derniere liste demandee, puis arrete le fil d'ecriture.
+	 * @throws IOException si la derniere ecriture a echoue.
+	 * @throws InterruptedException si le fil est interrompu pendant l'attente.
+	 */
+	public void close() throws IOException, InterruptedException {
+		try {
+			flush();
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package ch.epfl.flamemaker.flame;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FlameLibrarySaverTest {
+	@Test
+	public void testLastSaveWins() throws IOException, InterruptedException {
+		File file = File.createTempFile("flamelist", ".sav");
+		FlameLibrarySaver saver = new FlameLibrarySaver(file);
+		try {
+			for(int size=1; size<=20; size++) {
+				saver.save(FlameTest.newSharkLibrary("Shark ", size));
+			}
+			saver.flush();
+			assertNull(saver.lastError());
+			FlameLibrary library = FlameLibrary.open(file);
+			assertEquals(20, library.size());
+			assertEquals("Shark 19", library.name(19));
+		}
+		finally {
+			saver.close();
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testFailedSaveKeepsPreviousFile() throws IOException, InterruptedException {
+		File file = File.createTempFile("flamelist", ".sav");
+		FlameLibrarySaver saver = new FlameLibrarySaver(file);
+		try {
+			saver.save(FlameTest.newSharkLibrary("Shark ", 2));
+			saver.flush();
+			// Un document illisible fait echouer l'ecriture suivante, sans toucher au fichier
+			final List<FlameDocument> documents = FlameTest.newSharkLibrary("Shark ", 3);
+			saver.save(new AbstractList<FlameDocument>() {
+				@Override
+				public FlameDocument get(int index) {
+					if(index == 1)
+						throw new UncheckedIOException(new IOException("Enregistrement invalide"));
+					return documents.get(index);
+				}
+
+				@Override
+				public int size() {
+					return documents.size();
+				}
+			});
+			try {
+				saver.flush();
+				fail();
+			} catch(IOException e) {
+				assertSame(e, saver.lastError());
+			}
+			assertEquals(2, FlameLibrary.open(file).size());
+			
+			// L'ecriture suivante reussit a nouveau
+			saver.save(documents);
+			saver.flush();
+			assertNull(saver.lastError());
+			assertEquals(3, FlameLibrary.open(file).size());
+		}
+		finally {
+			saver.close();
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testOversizedNameFailsFlush() throws IOException, InterruptedException {
+		File file = File.createTempFile("flamelist", ".sav");
+		FlameLibrarySaver saver = new FlameLibrarySaver(file);
+		try {
+			saver.save(FlameTest.newSharkLibrary("Shark ", 2));
+			saver.flush();
+			// Un nom de plus de 65535 octets ne peut pas etre ecrit au format binaire
+			char[] name = new char[0x10000];
+			Arrays.fill(name, 'a');
+			saver.save(Arrays.asList(FlameTest.newSharkDocument(new String(name))));
+			try {
+				saver.flush();
+				fail();
+			} catch(IOException e) {
+				assertSame(e, saver.lastError());
+				assertTrue(e.getCause() instanceof IllegalArgumentException);
+			}
+			assertEquals(2, FlameLibrary.open(file).size());
+			
+			saver.save(FlameTest.newSharkLibrary("Shark ", 3));
+			saver.flush();
+			assertNull(saver.lastError());
+		}
+		finally {
+			saver.close();
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package ch.epfl.flamemaker.flame;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FlameLibraryTest {
+	@Test
+	public void testOpenReadsOnlyTheIndex() throws IOException {
+		File file = File.createTempFile("flamelist", ".sav");
+		try {
+			FlameLibraryFormat.write(FlameTest.newSharkLibrary("Shark ", 5), file);
+			FlameLibrary library = FlameLibrary.open(file, 2);
+			assertEquals(5, library.size());
+			assertEquals("Shark 3", library.name(3));
+			assertEquals(0, library.cachedCount());
+
+			FlameDocument document = library.document(3);
+			assertEquals("Shark 3", document.getName());
+			assertEquals(3, document.getFrame().center().x(), 0);
+			assertSame(document, library.document(3));
+
+			// Le cache ne garde que les deux dernieres fractales demandees
+			library.document(0);
+			library.document(1);
+			assertEquals(2, library.cachedCount());
+			assertNotSame(document, library.document(3));
+			assertEquals(5, library.documents().size());
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testOpenLoadsLegacyFiles() throws IOException {
+		File file = File.createTempFile("flamelist", ".sav");
+		try {
+			ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(file));
+			for(FlameDocument document : FlameTest.newSharkLibrary("Legacy ", 3)) {
+				output.writeObject(new StorableFlame(document));
+			}
+			output.close();
+			FlameLibrary library = FlameLibrary.open(file);
+			assertEquals(3, library.size());
+			assertEquals("Legacy 2", library.document(2).getName());
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testSaveKeepsOpenLibraryReadable() throws IOException {
+		File file = File.createTempFile("flamelist", ".sav");
+		try {
+			FlameLibrary.save(FlameTest.newSharkLibrary("Old ", 4), file);
+			FlameLibrary old = FlameLibrary.open(file, 0);
+			FlameLibrary.save(FlameTest.newSharkLibrary("New ", 2), file);
+			assertEquals("Old 3", old.document(3).getName());
+			FlameLibrary replaced = FlameLibrary.open(file);
+			assertEquals(2, replaced.size());
+			assertEquals("New 1", replaced.document(1).getName());
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testSaveOverOpenLibraryAndReopen() throws IOException {
+		File file = File.createTempFile("flamelist", ".sav");
+		try {
+			FlameLibrary.save(FlameTest.newSharkLibrary("Shark ", 3), file);
+			FlameLibrary opened = FlameLibrary.open(file);
+			// Comme l'interface graphique : la bibliotheque ouverte fournit les fractales enregistrees par-dessus son propre fichier
+			List<FlameDocument> documents = new ArrayList<FlameDocument>(opened.documents());
+			documents.set(1, documents.get(1).withName("Renamed"));
+			FlameLibrary.save(documents, file);
+			// Le fichier n'est pas retenu par la bibliotheque ouverte
+			assertTrue(file.delete());
+			FlameLibrary.save(documents, file);
+			FlameLibrary reopened = FlameLibrary.open(file);
+			assertEquals(3, reopened.size());
+			assertEquals("Renamed", reopened.document(1).getName());
+			assertEquals("Shark 2", reopened.document(2).getName());
+			assertEquals("Shark 1", opened.document(1).getName());
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testNameRejectsInvalidIndex() {
+		FlameLibrary.of(FlameTest.newSharkLibrary("Memory ", 1)).name(1);
+	}
+}
@@ -0,0 +1,297 @@
+package ch.epfl.flamemaker.flame;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import ch.epfl.flamemaker.color.Color;
+import ch.epfl.flamemaker.color.PaletteTable;
+
+/**
+ * <p>La classe <code>FlamePNGMaker</code> ecrit l'image d'un <code>{@link FlameAccumulator}</code> dans un fichier PNG (RGB, 8 bits par composante), sans passer par une <code>BufferedImage</code>.</p>
+ * <p>L'image est decoupee en bandes horizontales de quelques lignes, traitees en parallele : chaque bande est coloriee, filtree (filtre "Paeth")
+ * puis compressee par son propre <code>{@link Deflater}</code>. <br />
+ * Les bandes sont ensuite ecrites dans l'ordre, chacune dans un bloc <code>IDAT</code> : chaque flux compresse se termine par un <code>SYNC_FLUSH</code> (le dernier par <code>finish()</code>),
+ * si bien que leur concatenation forme un seul flux "deflate" valide. L'en-tete zlib est ecrit a la main, et la somme de controle Adler-32 de l'ensemble
+ * est obtenue en combinant celles des bandes.</p>
+ * <p>Seules quelques bandes sont en memoire a la fois, quelle que soit la taille de l'image.</p>
+ * @see FlamePPMMaker
+ */
+public final class FlamePNGMaker {
+	/**
+	 * Le nombre d'octets non compresses vises par bande.
+	 */
+	private static final int STRIPE_BYTES = 1 << 20;
+	private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+	private static final int ADLER_BASE = 65521;
+
+	private FlamePNGMaker() {}
+
+	/**
+	 * Ecrit l'image de la fractale dans un fichier PNG, en utilisant autant de fils d'execution que de processeurs.
+	 * @param acc l'accumulateur pour lequel on veut generer l'image.
+	 * @param toneMap le mappage des nombres de points en intensites.
+	 * @param table la table de la palette de couleurs utilisee.
+	 * @param background la couleur de fond.
+	 * @param file le fichier dans lequel on ecrit.
+	 * @throws IOException si le fichier ne peut pas etre ecrit.
+	 * @see FlamePNGMaker#writePNG(FlameAccumulator, ToneMap, PaletteTable, Color, int, File)
+	 */
+	public static void writePNG(FlameAccumulator acc, ToneMap toneMap, PaletteTable table, Color background, File file) throws IOException {
+		writePNG(acc, toneMap, table, background, Runtime.getRuntime().availableProcessors(), file);
+	}
+
+	/**
+	 * Ecrit l'image de la fractale dans un fichier PNG, en compressant les bandes sur <code>threads</code> fils d'execution.
+	 * @param acc l'accumulateur pour lequel on veut generer l'image.
+	 * @param toneMap le mappage des nombres de points en intensites.
+	 * @param table la table de la palette de couleurs utilisee.
+	 * @param background la couleur de fond.
+	 * @param threads le nombre de fils d'execution a utiliser.
+	 * @param file le fichier dans lequel on ecrit.
+	 * @throws IllegalArgumentException si le nombre de fils est negatif ou nul.
+	 * @throws IOException si le fichier ne peut pas etre ecrit.
+	 */
+	public static void writePNG(FlameAccumulator acc, ToneMap toneMap, PaletteTable table, Color background, int threads, File file) throws IOException {
+		writePNG(acc, toneMap, table, background, threads, Math.max(1, STRIPE_BYTES/(3*acc.width() + 1)), file);
+	}
+
+	/**
+	 * Ecrit l'image de la fractale dans un fichier PNG, par bandes de <code>stripeRows</code> lignes.
+	 */
+	static void writePNG(final FlameAccumulator acc, final ToneMap toneMap, final PaletteTable table, final Color background, int threads, final int stripeRows, File file) throws IOException {
+		if(threads <= 0)
+			throw new IllegalArgumentException("Le nombre de fils d'execution doit etre strictement positif !");
+		final int height = acc.height();
+		final int stripes = (height + stripeRows - 1)/stripeRows;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			out.write(SIGNATURE);
+			ByteBuffer ihdr = ByteBuffer.allocate(13);
+			ihdr.putInt(acc.width()).putInt(height);
+			ihdr.put((byte) 8);	// 8 bits par composante
+			ihdr.put((byte) 2);	// RGB
+			ihdr.put((byte) 0);	// compression "deflate"
+			ihdr.put((byte) 0);	// filtrage adaptatif
+			ihdr.put((byte) 0);	// pas d'entrelacement
+			writeChunk(out, "IHDR", ihdr.array(), 0, 13);
+
+			// Au plus 2*threads bandes en cours, pour borner la memoire utilisee
+			Deque<Future<Stripe>> pending = new ArrayDeque<Future<Stripe>>();
+			int next = 0;
+			long adler = 1;
+			boolean first = true;
+			while(next < stripes || !pending.isEmpty()) {
+				while(next < stripes && pending.size() < 2*threads) {
+					final int from = next*stripeRows;
+					final int to = Math.min(height, from + stripeRows);
+					final boolean last = (to == height);
+					pending.add(executor.submit(new Callable<Stripe>() {
+						@Override
+						public Stripe call() {
+							return compressStripe(acc, toneMap, table, background, from, to, last);
+						}
+					}));
+					next++;
+				}
+				Stripe stripe = pending.poll().get();
+				adler = combineAdler32(adler, stripe.adler, stripe.rawLength);
+				byte[] data = stripe.data;
+				int length = stripe.length;
+				if(first) {
+					// En-tete zlib : "deflate" avec une fenetre de 32 Ko, sans dictionnaire
+					data = prepend(new byte[] { 0x78, (byte) 0x9C }, data, length);
+					length += 2;
+					first = false;
+				}
+				if(stripe.last) {
+					data = Arrays.copyOf(data, length + 4);
+					data[length] = (byte) (adler >>> 24);
+					data[length+1] = (byte) (adler >>> 16);
+					data[length+2] = (byte) (adler >>> 8);
+					data[length+3] = (byte) adler;
+					length += 4;
+				}
+				writeChunk(out, "IDAT", data, 0, length);
+			}
+			writeChunk(out, "IEND", new byte[0], 0, 0);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("L'ecriture de l'image a ete interrompue !", e);
+		} catch (ExecutionException e) {
+			throw new IOException("L'ecriture de l'image a echoue !", e.getCause());
+		}
+		finally {
+			executor.shutdownNow();
+			out.close();
+		}
+	}
+
+	/**
+	 * Colorie, filtre et compresse les lignes <code>from</code> a <code>to-1</code> de l'image.
+	 */
+	private static Stripe compressStripe(FlameAccumulator acc, ToneMap toneMap, PaletteTable table, Color background, int from, int to, boolean last) {
+		int width = acc.width();
+		int rowBytes = 3*width;
+		double[] r = new double[width], g = new double[width], b = new double[width];
+		int[] er = new int[width], eg = new int[width], eb = new int[width];
+		byte[] previous = new byte[rowBytes];
+		byte[] current = new byte[rowBytes];
+		byte[] raw = new byte[(to - from)*(rowBytes + 1)];
+
+		// Le filtre de la premiere ligne depend de la derniere ligne de la bande precedente
+		if(from > 0)
+			encodeRow(acc, toneMap, table, background, from - 1, r, g, b, er, eg, eb, previous);
+		int offset = 0;
+		for(int y=from; y<to; y++) {
+			encodeRow(acc, toneMap, table, background, y, r, g, b, er, eg, eb, current);
+			raw[offset++] = 4;	// Paeth
+			for(int i=0; i<rowBytes; i++) {
+				int left = i >= 3 ? current[i-3] & 0xFF : 0;
+				int up = previous[i] & 0xFF;
+				int upLeft = i >= 3 ? previous[i-3] & 0xFF : 0;
+				raw[offset++] = (byte) (current[i] - paeth(left, up, upLeft));
+			}
+			byte[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+
+		Adler32 adler = new Adler32();
+		adler.update(raw, 0, raw.length);
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(raw);
+			if(last)
+				deflater.finish();
+			byte[] data = new byte[raw.length/2 + 64];
+			int length = 0;
+			while(true) {
+				if(length == data.length)
+					data = Arrays.copyOf(data, 2*data.length);
+				int n = deflater.deflate(data, length, data.length - length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+				length += n;
+				// Avec SYNC_FLUSH, tout a ete compresse des que le tampon n'a pas ete rempli
+				if(last ? deflater.finished() : length < data.length)
+					break;
+			}
+			return new Stripe(data, length, adler.getValue(), raw.length, last);
+		}
+		finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Colorie la ligne <code>y</code> et ecrit ses composantes sRGB, octet par octet, dans <code>row</code>.
+	 */
+	private static void encodeRow(FlameAccumulator acc, ToneMap toneMap, PaletteTable table, Color background, int y,
+			double[] r, double[] g, double[] b, int[] er, int[] eg, int[] eb, byte[] row) {
+		int width = acc.width();
+		acc.linearRow(toneMap, table, background, y, r, g, b);
+		Color.sRGBEncode(r, 255, er, width);
+		Color.sRGBEncode(g, 255, eg, width);
+		Color.sRGBEncode(b, 255, eb, width);
+		for(int x=0, i=0; x<width; x++) {
+			row[i++] = (byte) er[x];
+			row[i++] = (byte) eg[x];
+			row[i++] = (byte) eb[x];
+		}
+	}
+
+	/**
+	 * Le predicteur de Paeth : celui des octets voisins (gauche, haut, haut-gauche) le plus proche de <code>left + up - upLeft</code>.
+	 */
+	private static int paeth(int left, int up, int upLeft) {
+		int p = left + up - upLeft;
+		int pa = Math.abs(p - left), pb = Math.abs(p - up), pc = Math.abs(p - upLeft);
+		if(pa <= pb && pa <= pc)
+			return left;
+		return pb <= pc ? up : upLeft;
+	}
+
+	/**
+	 * Retourne la somme Adler-32 de la concatenation de deux suites d'octets, connaissant la somme de chacune et la longueur de la seconde
+	 * (comme <code>adler32_combine()</code> de zlib).
+	 * @param adler1 la somme de la premiere suite.
+	 * @param adler2 la somme de la seconde suite.
+	 * @param length2 la longueur de la seconde suite.
+	 * @return la somme de la concatenation.
+	 */
+	static long combineAdler32(long adler1, long adler2, long length2) {
+		long remainder = length2 % ADLER_BASE;
+		long sum1 = adler1 & 0xFFFF;
+		long sum2 = (remainder*sum1) % ADLER_BASE;
+		sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+		sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + ADLER_BASE - remainder;
+		if(sum1 >= ADLER_BASE)
+			sum1 -= ADLER_BASE;
+		if(sum1 >= ADLER_BASE)
+			sum1 -= ADLER_BASE;
+		if(sum2 >= 2L*ADLER_BASE)
+			sum2 -= 2L*ADLER_BASE;
+		if(sum2 >= ADLER_BASE)
+			sum2 -= ADLER_BASE;
+		return sum1 | (sum2 << 16);
+	}
+
+	/**
+	 * Ecrit un bloc PNG : sa longueur, son type, ses donnees et leur somme de controle CRC-32.
+	 */
+	private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset, int length) throws IOException {
+		byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, offset, length);
+		out.writeInt(length);
+		out.write(typeBytes);
+		out.write(data, offset, length);
+		out.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Retourne un tableau contenant <code>prefix</code> suivi des <code>length</code> premiers octets de <code>data</code>.
+	 */
+	private static byte[] prepend(byte[] prefix, byte[] data, int length) {
+		byte[] result = new byte[prefix.length + length];
+		System.arraycopy(prefix, 0, result, 0, prefix.length);
+		System.arraycopy(data, 0, result, prefix.length, length);
+		return result;
+	}
+
+	/**
+	 * Une bande compressee, avec la somme Adler-32 et la longueur de ses octets non compresses.
+	 */
+	private static final class Stripe {
+		private final byte[] data;
+		private final int length;
+		private final long adler;
+		private final int rawLength;
+		private final boolean last;
+
+		Stripe(byte[] data, int length, long adler, int rawLength, boolean last) {
+			this.data = data;
+			this.length = length;
+			this.adler = adler;
+			this.rawLength = rawLength;
+			this.last = last;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package ch.epfl.flamemaker.flame;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import ch.epfl.flamemaker.color.Color;
+import ch.epfl.flamemaker.color.InterpolatedPalette;
+import ch.epfl.flamemaker.color.PaletteTable;
+import ch.epfl.flamemaker.geometry2d.Point;
+import ch.epfl.flamemaker.geometry2d.Rectangle;
+
+public class FlamePNGMakerTest {
+	@Test
+	public void testWritePNGMatchesColorize() throws IOException {
+		FlameAccumulator acc = FlameTest.newShark().compute(new Rectangle(new Point(-0.25, 0.0), 5, 4), 50, 40, 10);
+		PaletteTable table = InterpolatedPalette.generateRGBPal().bake(PaletteTable.DEFAULT_SIZE);
+		int[] raster = new int[50*40];
+		acc.colorize(table, Color.WHITE, raster);
+		
+		File file = File.createTempFile("flame", ".png");
+		try {
+			// Bandes de 7 lignes, dont une incomplete, sur 3 fils
+			FlamePNGMaker.writePNG(acc, ToneMap.DEFAULT, table, Color.WHITE, 3, 7, file);
+			BufferedImage image = ImageIO.read(file);
+			assertEquals(50, image.getWidth());
+			assertEquals(40, image.getHeight());
+			for(int y=0; y<40; y++) {
+				for(int x=0; x<50; x++) {
+					assertEquals(raster[y*50 + x], image.getRGB(x, y) & 0xFFFFFF);
+				}
+			}
+		}
+		finally {
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void testCombineAdler32() {
+		byte[] bytes = new byte[200000];
+		new Random(2013).nextBytes(bytes);
+		Adler32 whole = new Adler32(), first = new Adler32(), second = new Adler32();
+		whole.update(bytes);
+		first.update(bytes, 0, 123457);
+		second.update(bytes, 123457, bytes.length - 123457);
+		assertEquals(whole.getValue(), FlamePNGMaker.combineAdler32(first.getValue(), second.getValue(), bytes.length - 123457));
+	}
+}
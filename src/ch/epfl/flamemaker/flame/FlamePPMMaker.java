@@ -1,13 +1,22 @@
 package ch.epfl.flamemaker.flame;
 
-import java.io.FileNotFoundException;
-import java.io.PrintStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
 import ch.epfl.flamemaker.color.*;
 import ch.epfl.flamemaker.geometry2d.*;
 
 public class FlamePPMMaker {
+	/**
+	 * La taille du tampon d'octets utilise pour ecrire les fichiers PPM.
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+	
 	public static void main(String[] args) {
 		
 		/*
@@ -65,43 +74,83 @@ public class FlamePPMMaker {
 	}
 	
 	/**
-	 * Cree un printStream dans lequel on insere les couleurs de chaque case de l'accumulateur. <br />
-	 * Ce printstream ecrit les triplets de couleur des cases de l'accumulateur dans un fichier au format PPM. <br /> 
-	 * On parcourt l'accumulateur, on recupere la couleur a la case parcourue et on l'affiche encodee grace a la methode <code>{@link Color#asPackedRGB() asPackedRGB()}</code> en des valeurs entre 0 et 100.
+	 * Ecrit l'image de la fractale dans le fichier <code>name.ppm</code>, au format PPM binaire sur 8 bits, avec un fond rouge. <br />
+	 * Si le fichier ne peut pas etre ecrit, un message est affiche et rien n'est ecrit.
 	 * @param acc l'accumulateur pour lequel on veut generer l'image.
 	 * @param palette la palette de couleurs utilisee pour cette image.
-	 * @param name le nom du fichier dans lequel on ecrit.
+	 * @param name le nom du fichier dans lequel on ecrit, sans l'extension.
+	 * @see FlamePPMMaker#writePPM(FlameAccumulator, ToneMap, PaletteTable, Color, int, File)
 	 */
 	public static void generateFractal(FlameAccumulator acc, Palette palette, String name) {
-		PrintStream f = null;
 		try {
-			f = new PrintStream(name + ".ppm");
-		} catch(FileNotFoundException e) {
-			System.out.println("Fichier introuvable / impossible  crer !");
+			writePPM(acc, ToneMap.DEFAULT, palette.bake(PaletteTable.DEFAULT_SIZE), Color.RED, 255, new File(name + ".ppm"));
+		} catch(IOException e) {
+			System.out.println("Fichier introuvable / impossible a creer !");
 			e.printStackTrace();
 		}
+	}
+	
+	/**
+	 * <p>Ecrit l'image de la fractale dans un fichier au format PPM binaire (<code>P6</code>), ligne apres ligne en partant du haut.</p>
+	 * <p>Chaque ligne est coloriee avec <code>{@link FlameAccumulator#linearRow(ToneMap, PaletteTable, Color, int, double[], double[], double[]) linearRow()}</code>, 
+	 * encodee en sRGB avec la valeur maximale <code>maxval</code>, puis copiee dans un tampon d'octets reutilise, vide dans le fichier (<code>{@link FileChannel}</code>) lorsqu'il est plein. <br />
+	 * Seule une ligne de l'image est donc en memoire a la fois, quelle que soit sa taille. 
+	 * Avec une valeur maximale de 255, chaque composante occupe un octet ; au-dela, elle en occupe deux (poids fort en premier), comme le veut le format.</p>
+	 * @param acc l'accumulateur pour lequel on veut generer l'image.
+	 * @param toneMap le mappage des nombres de points en intensites.
+	 * @param table la table de la palette de couleurs utilisee.
+	 * @param background la couleur de fond.
+	 * @param maxval la valeur maximale d'une composante : 255 (8 bits) ou 65535 (16 bits), ou toute valeur intermediaire.
+	 * @param file le fichier dans lequel on ecrit.
+	 * @throws IllegalArgumentException si <code>maxval</code> n'est pas entre 1 et 65535.
+	 * @throws IOException si le fichier ne peut pas etre ecrit.
+	 */
+	public static void writePPM(FlameAccumulator acc, ToneMap toneMap, PaletteTable table, Color background, int maxval, File file) throws IOException {
+		if(maxval < 1 || maxval > 65535)
+			throw new IllegalArgumentException("La valeur maximale doit etre comprise entre 1 et 65535 !");
+		int width = acc.width();
+		int bytesPerComponent = maxval < 256 ? 1 : 2;
+		int rowBytes = 3*bytesPerComponent*width;
+		ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(rowBytes, BUFFER_SIZE));
+		double[] r = new double[width], g = new double[width], b = new double[width];
+		int[] er = new int[width], eg = new int[width], eb = new int[width];
 		
-		f.println("P3");
-		f.println(acc.width() + " " + acc.height());
-		f.println("100");
-		for(int i=0; i<acc.height(); i++) {
-			for(int j=0; j<acc.width(); j++) {
-				/*
-				 * IFS
-				 * f.print((int) (acc.intensity(j, i)*100) + " ");
-				 * System.out.print((int) (acc.intensity(j, i)*100) + " ");
-				 * System.out.print(acc.intensity(j, i));
-				 */
-				
-				/*
-				 * Flame
-				 */
-				Color c = acc.color(palette, Color.RED, j, i);
-				f.print(Color.sRGBEncode(c.red(), 100) + " " + Color.sRGBEncode(c.green(), 100) + " " + Color.sRGBEncode(c.blue(), 100) + " ");
+		FileChannel channel = new FileOutputStream(file).getChannel();
+		try {
+			buffer.put(("P6\n" + width + " " + acc.height() + "\n" + maxval + "\n").getBytes(StandardCharsets.US_ASCII));
+			for(int y=0; y<acc.height(); y++) {
+				acc.linearRow(toneMap, table, background, y, r, g, b);
+				Color.sRGBEncode(r, maxval, er, width);
+				Color.sRGBEncode(g, maxval, eg, width);
+				Color.sRGBEncode(b, maxval, eb, width);
+				if(buffer.remaining() < rowBytes)
+					flush(buffer, channel);
+				if(bytesPerComponent == 1) {
+					for(int x=0; x<width; x++) {
+						buffer.put((byte) er[x]).put((byte) eg[x]).put((byte) eb[x]);
+					}
+				}
+				else {
+					for(int x=0; x<width; x++) {
+						buffer.putShort((short) er[x]).putShort((short) eg[x]).putShort((short) eb[x]);
+					}
+				}
 			}
-			f.println();
-			//System.out.println();
+			flush(buffer, channel);
+		}
+		finally {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Ecrit tout le contenu du tampon dans le canal, puis vide le tampon.
+	 */
+	private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
 		}
-		f.close();
+		buffer.clear();
 	}
 }
@@ -0,0 +1,47 @@
+package ch.epfl.flamemaker.flame;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import ch.epfl.flamemaker.color.Color;
+import ch.epfl.flamemaker.color.InterpolatedPalette;
+import ch.epfl.flamemaker.color.PaletteTable;
+import ch.epfl.flamemaker.geometry2d.Point;
+import ch.epfl.flamemaker.geometry2d.Rectangle;
+
+public class FlamePPMMakerTest {
+	@Test
+	public void testWritePPMMatchesColorize() throws IOException {
+		FlameAccumulator acc = FlameTest.newShark().compute(new Rectangle(new Point(-0.25, 0.0), 5, 4), 50, 40, 10);
+		PaletteTable table = InterpolatedPalette.generateRGBPal().bake(PaletteTable.DEFAULT_SIZE);
+		int[] raster = new int[50*40];
+		acc.colorize(table, Color.BLACK, raster);
+		
+		File file = File.createTempFile("flame", ".ppm");
+		try {
+			FlamePPMMaker.writePPM(acc, ToneMap.DEFAULT, table, Color.BLACK, 255, file);
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			byte[] header = "P6\n50 40\n255\n".getBytes(StandardCharsets.US_ASCII);
+			assertEquals(header.length + 3*raster.length, bytes.length);
+			for(int i=0; i<header.length; i++) {
+				assertEquals(header[i], bytes[i]);
+			}
+			for(int i=0; i<raster.length; i++) {
+				int offset = header.length + 3*i;
+				assertEquals(raster[i], ((bytes[offset] & 0xFF) << 16) | ((bytes[offset+1] & 0xFF) << 8) | (bytes[offset+2] & 0xFF));
+			}
+			
+			FlamePPMMaker.writePPM(acc, ToneMap.DEFAULT, table, Color.BLACK, 65535, file);
+			assertEquals("P6\n50 40\n65535\n".length() + 6*raster.length, file.length());
+		}
+		finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package ch.epfl.flamemaker.flame;
+
+import java.util.Random;
+
+import ch.epfl.flamemaker.geometry2d.Rectangle;
+
+/**
+ * <p>La classe <code>FlameRenderSession</code> permet de calculer une fractale de maniere progressive.</p>
+ * <p>Contrairement a <code>{@link Flame#compute(Rectangle, int, int, int) compute()}</code>, elle conserve entre deux appels l'etat de l'algorithme du chaos : <br />
+ * le point courant <code><b>walker</b></code>, le generateur aleatoire <code><b>randy</b></code> et le batisseur <code><b>builder</b></code> qui contient les points deja accumules.</p>
+ * <p>On peut ainsi ajouter des points a tout moment avec <code>{@link FlameRenderSession#iterate(long) iterate()}</code>,
+ * et obtenir l'accumulateur courant avec <code>{@link FlameRenderSession#snapshot() snapshot()}</code> sans interrompre le calcul. <br />
+ * Les methodes peuvent etre appelees depuis plusieurs fils d'execution : <code>iterate()</code> travaille par tranches de <code>{@value #SLICE_SIZE}</code> points,
+ * entre lesquelles un autre fil peut prendre un instantane.</p>
+ * @see Flame
+ * @see FlameKernel
+ * @see FlameAccumulator.Builder
+ */
+public final class FlameRenderSession {
+	/**
+	 * Le nombre de points generes d'un seul tenant par <code>iterate()</code>.
+	 */
+	public static final int SLICE_SIZE = 1 << 16;
+
+	private final int size;
+	private final FlameKernel.Walker walker;
+	private final Random randy;
+	private final FlameAccumulator.Builder builder;
+	private final double[] xs, ys, cs;
+	private final int width, height;
+	private long iterations;
+
+	/**
+	 * Construit une session de calcul avec la graine par defaut <code>{@value Flame#DEFAULT_SEED}</code>.
+	 * @param flame la fractale a calculer.
+	 * @param frame le cadre qui delimite la region du plan dans laquelle on genere la fractale.
+	 * @param width la largeur de l'accumulateur.
+	 * @param height la hauteur de l'accumulateur.
+	 * @throws IllegalArgumentException si la largeur ou la hauteur sont negatives ou nulles.
+	 * @throws UnsupportedOperationException si la fractale n'a aucune transformation.
+	 */
+	public FlameRenderSession(Flame flame, Rectangle frame, int width, int height) {
+		this(flame, frame, width, height, Flame.DEFAULT_SEED);
+	}
+
+	/**
+	 * Construit une session de calcul pour la fractale donnee et place le point courant sur l'attracteur :
+	 * comme dans <code>{@link Flame#compute(Rectangle, int, int, int) compute()}</code>, les 21 premieres iterations ne sont pas accumulees.
+	 * @param flame la fractale a calculer.
+	 * @param frame le cadre qui delimite la region du plan dans laquelle on genere la fractale.
+	 * @param width la largeur de l'accumulateur.
+	 * @param height la hauteur de l'accumulateur.
+	 * @param seed la graine du generateur aleatoire.
+	 * @throws IllegalArgumentException si la largeur ou la hauteur sont negatives ou nulles.
+	 * @throws UnsupportedOperationException si la fractale n'a aucune transformation.
+	 */
+	public FlameRenderSession(Flame flame, Rectangle frame, int width, int height, long seed) {
+		this(flame, new FlameAccumulator.Builder(frame, width, height), seed);
+	}
+
+	/**
+	 * Construit une session de calcul qui accumule les points dans le batisseur donne, 
+	 * par exemple un batisseur projete en memoire (<code>{@link FlameAccumulator.Builder#newMappedBuilder(Rectangle, int, int, java.io.File) newMappedBuilder()}</code>) pour les tres grandes images. <br />
+	 * Le batisseur ne doit plus etre modifie que par la session.
+	 * @param flame la fractale a calculer.
+	 * @param builder le batisseur dans lequel accumuler les points.
+	 * @param seed la graine du generateur aleatoire.
+	 * @throws UnsupportedOperationException si la fractale n'a aucune transformation.
+	 */
+	public FlameRenderSession(Flame flame, FlameAccumulator.Builder builder, long seed) {
+		FlameKernel kernel = flame.compile();
+		this.size = kernel.transformationCount();
+		this.walker = kernel.newWalker();
+		this.randy = new Random(seed);
+		this.builder = builder;
+		this.width = builder.width();
+		this.height = builder.height();
+		this.xs = new double[FlameAccumulator.Builder.BATCH_SIZE];
+		this.ys = new double[FlameAccumulator.Builder.BATCH_SIZE];
+		this.cs = new double[FlameAccumulator.Builder.BATCH_SIZE];
+		for(int i=0; i<21; i++) {
+			walker.step(randy.nextInt(size));
+		}
+	}
+
+	/**
+	 * Genere et accumule <code>n</code> points supplementaires, en reprenant la ou le calcul precedent s'etait arrete.
+	 * @param n le nombre de points a ajouter.
+	 * @throws IllegalArgumentException si <code>n</code> est negatif.
+	 */
+	public void iterate(long n) {
+		if(n < 0)
+			throw new IllegalArgumentException("Le nombre de points a ajouter ne peut pas etre negatif !");
+		while(n > 0) {
+			int slice = (int) Math.min(n, SLICE_SIZE);
+			synchronized(this) {
+				for(int done=0; done<slice; ) {
+					int batch = Math.min(slice - done, xs.length);
+					for(int i=0; i<batch; i++) {
+						walker.step(randy.nextInt(size));
+						xs[i] = walker.x();
+						ys[i] = walker.y();
+						cs[i] = walker.colorIndex();
+					}
+					builder.hitAll(xs, ys, cs, batch);
+					done += batch;
+				}
+				iterations += slice;
+			}
+			n -= slice;
+		}
+	}
+
+	/**
+	 * Ajoute autant de points qu'il en faut pour que la densite de l'accumulateur atteigne la densite donnee. Ne fait rien si elle est deja atteinte.
+	 * @param density la densite visee, en points par case.
+	 * @see FlameRenderSession#density()
+	 */
+	public void iterateToDensity(double density) {
+		long target = (long) Math.ceil(density*width*height);
+		iterate(Math.max(0, target - iterationCount()));
+	}
+
+	/**
+	 * Retourne un accumulateur contenant les points accumules jusqu'a present. <br />
+	 * La session n'est pas modifiee et le calcul peut ensuite continuer.
+	 * @return le <code>FlameAccumulator</code> courant.
+	 */
+	public synchronized FlameAccumulator snapshot() {
+		return builder.build();
+	}
+
+	/**
+	 * Retourne le nombre de points accumules jusqu'a present.
+	 * @return le nombre de points accumules.
+	 */
+	public synchronized long iterationCount() {
+		return iterations;
+	}
+
+	/**
+	 * Retourne la densite courante, c-a-d le nombre de points accumules par case de l'accumulateur.
+	 * @return la densite courante.
+	 */
+	public double density() {
+		return iterationCount()/((double) width*height);
+	}
+}
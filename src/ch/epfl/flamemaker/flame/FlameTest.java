@@ -0,0 +1,155 @@
+package ch.epfl.flamemaker.flame;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import org.junit.Test;
+
+import ch.epfl.flamemaker.color.Color;
+import ch.epfl.flamemaker.color.InterpolatedPalette;
+import ch.epfl.flamemaker.color.Palette;
+import ch.epfl.flamemaker.geometry2d.AffineTransformation;
+import ch.epfl.flamemaker.geometry2d.Point;
+import ch.epfl.flamemaker.geometry2d.Rectangle;
+
+public class FlameTest {
+	private static final Rectangle SHARK_FRAME = new Rectangle(new Point(-0.25, 0.0), 5, 4);
+	
+	static List<FlameTransformation> newSharkTransformations() {
+		List<FlameTransformation> sharkFin = new ArrayList<FlameTransformation>();
+		sharkFin.add(new FlameTransformation(new AffineTransformation(-0.4113504, -0.7124804, -0.4, 0.7124795, -0.4113508, 0.8), new double[]{1, 0.1, 0, 0, 0, 0}));
+		sharkFin.add(new FlameTransformation(new AffineTransformation(-0.3957339, 0, -1.6, 0, -0.3957337, 0.2), new double[]{0, 0, 0, 0, 0.8, 1}));
+		sharkFin.add(new FlameTransformation(new AffineTransformation(0.4810169, 0, 1, 0, 0.4810169, 0.9), new double[]{1, 0, 0, 0, 0, 0}));
+		return sharkFin;
+	}
+	
+	static Flame newShark() {
+		return new Flame(newSharkTransformations());
+	}
+	
+	static FlameDocument newSharkDocument(String name) {
+		return newSharkDocument(name, SHARK_FRAME);
+	}
+	
+	static FlameDocument newSharkDocument(String name, Rectangle frame) {
+		return new FlameDocument(name, newSharkTransformations(), frame, InterpolatedPalette.generateRGBPal());
+	}
+	
+	/**
+	 * Retourne <code>size</code> requins nommes <code>prefix</code> suivi de leur numero, le cadre du requin <code>i</code> etant centre en <code>(i, 0)</code>.
+	 */
+	static List<FlameDocument> newSharkLibrary(String prefix, int size) {
+		List<FlameDocument> documents = new ArrayList<FlameDocument>();
+		for(int i=0; i<size; i++) {
+			documents.add(newSharkDocument(prefix + i, new Rectangle(new Point(i, 0), 5, 4)));
+		}
+		return documents;
+	}
+	
+	static void assertSameAccumulator(FlameAccumulator expected, FlameAccumulator actual) {
+		Palette palette = InterpolatedPalette.generateRGBPal();
+		assertEquals(expected.width(), actual.width());
+		assertEquals(expected.height(), actual.height());
+		for(int y=0; y<expected.height(); y++) {
+			for(int x=0; x<expected.width(); x++) {
+				assertEquals(expected.hitCount(x, y), actual.hitCount(x, y));
+				assertEquals(expected.color(palette, Color.BLACK, x, y).asPackedRGB(), actual.color(palette, Color.BLACK, x, y).asPackedRGB());
+			}
+		}
+	}
+	
+	@Test
+	public void testParallelComputeDoesNotDependOnThreadCount() {
+		// 2.4 millions de points, soit trois blocs dont un incomplet
+		Flame shark = newShark();
+		FlameAccumulator reference = shark.compute(SHARK_FRAME, 60, 40, 1000, 1);
+		for(int threads : new int[] { 2, 3, 8 }) {
+			assertSameAccumulator(reference, shark.compute(SHARK_FRAME, 60, 40, 1000, threads));
+		}
+	}
+	
+	@Test
+	public void testSharedComputeMatchesShardedCompute() {
+		Flame shark = newShark();
+		FlameAccumulator expected = shark.compute(SHARK_FRAME, 60, 40, 1000, 3, Flame.DEFAULT_SEED);
+		assertSameAccumulator(expected, shark.computeShared(SHARK_FRAME, 60, 40, 1000, 1, Flame.DEFAULT_SEED));
+		assertSameAccumulator(expected, shark.computeShared(SHARK_FRAME, 60, 40, 1000, 4, Flame.DEFAULT_SEED));
+	}
+	
+	@Test
+	public void testParallelComputeDependsOnSeed() {
+		Flame shark = newShark();
+		FlameAccumulator a = shark.compute(SHARK_FRAME, 60, 40, 10, 2, 1);
+		FlameAccumulator b = shark.compute(SHARK_FRAME, 60, 40, 10, 2, 2);
+		boolean different = false;
+		for(int y=0; y<a.height() && !different; y++) {
+			for(int x=0; x<a.width() && !different; x++) {
+				different = a.hitCount(x, y) != b.hitCount(x, y);
+			}
+		}
+		assertTrue(different);
+	}
+	
+	@Test
+	public void testKernelMatchesFlameTransformations() {
+		List<FlameTransformation> transformations = newSharkTransformations();
+		FlameKernel.Walker walker = new Flame(transformations).compile().newWalker();
+		Point p = Point.ORIGIN;
+		Random random = new Random(2013);
+		for(int i=0; i<10000; i++) {
+			int index = random.nextInt(transformations.size());
+			walker.step(index);
+			p = transformations.get(index).transformPoint(p);
+			assertEquals(Double.doubleToLongBits(p.x()), Double.doubleToLongBits(walker.x()));
+			assertEquals(Double.doubleToLongBits(p.y()), Double.doubleToLongBits(walker.y()));
+		}
+	}
+	
+	@Test
+	public void testRenderSessionResumesCompute() {
+		Flame shark = newShark();
+		FlameRenderSession session = new FlameRenderSession(shark, SHARK_FRAME, 60, 40);
+		// compute() accumule density*width*height - 1 points
+		session.iterate(30000);
+		FlameAccumulator partial = session.snapshot();
+		session.iterate(60*40*20 - 1 - 30000);
+		assertSameAccumulator(shark.compute(SHARK_FRAME, 60, 40, 20), session.snapshot());
+		assertEquals(60*40*20 - 1, session.iterationCount());
+		
+		int partialHits = 0;
+		for(int y=0; y<partial.height(); y++) {
+			for(int x=0; x<partial.width(); x++) {
+				partialHits += partial.hitCount(x, y);
+			}
+		}
+		assertTrue(partialHits <= 30000);
+	}
+	
+	@Test(expected = UnsupportedOperationException.class)
+	public void testCompileRejectsEmptyFlame() {
+		new Flame(new ArrayList<FlameTransformation>()).compile();
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testParallelComputeRejectsZeroThreads() {
+		newShark().compute(SHARK_FRAME, 60, 40, 10, 0);
+	}
+
+	@Test
+	public void testInterruptedComputeIsCancelled() {
+		Thread.currentThread().interrupt();
+		try {
+			newShark().compute(new Rectangle(new Point(-0.25, 0.0), 5, 4), 50, 40, 10);
+			fail();
+		} catch(CancellationException e) {
+			// Attendu
+		}
+		finally {
+			Thread.interrupted();
+		}
+	}
+}
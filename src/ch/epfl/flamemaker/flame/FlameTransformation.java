@@ -22,7 +22,7 @@ public final class FlameTransformation implements Transformation, Serializable {
 	/**
 	 * Constructeur de la classe FlameTransformation
 	 * @param affineTransformation la transformation affine qui compose la <code>FlameTransformation</code>
-	 * @param variationWeight le tableau de poids associe a la transformation
+	 * @param variationWeight le tableau de poids associe a la transformation, copie pour que la transformation reste non modifiable
 	 * @throws IllegalArgumentException si la taille du tableau de poids est differente du nombre de variations
 	 * @see AffineTransformation
 	 * @see Variation
@@ -31,7 +31,7 @@ public final class FlameTransformation implements Transformation, Serializable {
 		this.affineTransformation=affineTransformation;
 		if(variationWeight.length != Variation.ALL_VARIATIONS.size())
 			throw new IllegalArgumentException("La taille des poids est diffrente de celle des variations!");
-		this.variationWeight = variationWeight;
+		this.variationWeight = variationWeight.clone();
 	}
 	
 	/**
@@ -44,14 +44,35 @@ public final class FlameTransformation implements Transformation, Serializable {
 	@Override
 	public Point transformPoint(Point p) {
 		double wx = 0, wy = 0;
+		// La composante affine ne depend pas de la variation, on ne l'applique qu'une fois
+		Point affine = affineTransformation.transformPoint(p);
 		for(int j=0; j<Variation.ALL_VARIATIONS.size(); j++){
-			Point p2 = Variation.ALL_VARIATIONS.get(j).transformPoint(affineTransformation.transformPoint(p));
+			if(variationWeight[j] == 0)
+				continue;
+			Point p2 = Variation.ALL_VARIATIONS.get(j).transformPoint(affine);
 			wx += variationWeight[j]*p2.x();
 			wy += variationWeight[j]*p2.y();
 		}
 		return new Point(wx, wy);
 	}
 	
+	/**
+	 * Retourne la composante affine de cette transformation.
+	 * @return la composante <code>AffineTransformation</code>.
+	 */
+	AffineTransformation affineTransformation() {
+		return affineTransformation;
+	}
+	
+	/**
+	 * Retourne le poids de la variation d'index donne.
+	 * @param index l'index de la variation.
+	 * @return le poids de la variation.
+	 */
+	double variationWeight(int index) {
+		return variationWeight[index];
+	}
+	
 	/**
 	 * La classe <code>FlameTransformation.Builder</code> est une classe imbriquee qui permet de batir une <code>FlameTransformation</code> de maniere incrementale.
 	 */
@@ -66,20 +87,27 @@ public final class FlameTransformation implements Transformation, Serializable {
 	public static class Builder {
 		private AffineTransformation affineTransformation;
 		private double[] variationWeight;
+		// La derniere transformation construite, tant que le builder n'a pas ete modifie depuis
+		private FlameTransformation built;
 		
 		public Builder(FlameTransformation f) {
 			affineTransformation = f.affineTransformation;
 			variationWeight = f.variationWeight.clone();
+			built = f;
 		}
 		
 		/**
-		 * Construit et retourne la transformation <code>FlameTransformation</code> du builder.	
+		 * Construit et retourne la transformation <code>FlameTransformation</code> du builder. <br />
+		 * Tant que le builder n'est pas modifie, c'est toujours la meme instance qui est retournee : 
+		 * les fractales construites successivement partagent ainsi leurs transformations inchangees.
 		 * @return la <code>FlameTransformation</code> cree a partir de ce builder
 		 * @see FlameTransformation
 		 * @see FlameTransformation#FlameTransformation(AffineTransformation, double[])
 		 */
 		public FlameTransformation build() {
-			return new FlameTransformation(affineTransformation, variationWeight);
+			if(built == null)
+				built = new FlameTransformation(affineTransformation, variationWeight);
+			return built;
 		}
 		
 		/**
@@ -102,6 +130,7 @@ public final class FlameTransformation implements Transformation, Serializable {
 			if(newTransformation == null)
 				throw new IllegalArgumentException("La transformation affine n'a pas t initalise !");
 			affineTransformation = newTransformation;
+			built = null;
 		}
 		
 		
@@ -122,6 +151,7 @@ public final class FlameTransformation implements Transformation, Serializable {
 		 */
 		public void setNewWeight(int index, double newWeight) {
 			variationWeight[index] = newWeight; 
+			built = null;
 		}
 	}
 }
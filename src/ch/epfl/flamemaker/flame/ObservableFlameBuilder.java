@@ -1,18 +1,66 @@
 package ch.epfl.flamemaker.flame;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import ch.epfl.flamemaker.geometry2d.AffineTransformation;
 
+/**
+ * <p>La classe <code>ObservableFlameBuilder</code> est un batisseur de fractale qui avertit ses observateurs de chaque modification.</p>
+ * <p>Les avertissements peuvent etre regroupes, pour que plusieurs modifications rapprochees ne provoquent qu'un seul nouveau calcul : <br />
+ * - entre <code>{@link ObservableFlameBuilder#beginEdit()}</code> et <code>{@link ObservableFlameBuilder#commitEdit()}</code>, 
+ * les observateurs ne sont avertis qu'une fois, a la fin de la modification ; <br />
+ * - avec <code>{@link ObservableFlameBuilder#setCoalescingDelay(long, Executor)}</code>, ils sont avertis une fois le delai ecoule, 
+ * pour toutes les modifications faites entre-temps.</p>
+ * <p><code>{@link ObservableFlameBuilder#mergedNotifications()}</code> compte les avertissements ainsi economises. <br />
+ * <code>{@link ObservableFlameBuilder#build()}</code> garde la fractale construite jusqu'a la modification suivante, et <code>{@link ObservableFlameBuilder#version()}</code> 
+ * permet de savoir si quelque chose a change depuis un calcul precedent. <br />
+ * Le batisseur doit etre utilise depuis un seul fil d'execution, p.ex. celui de Swing, sur lequel l'executeur donne fait ses avertissements differes.</p>
+ */
 public class ObservableFlameBuilder {
+	// Les avertissements differes sont planifies sur un seul fil, puis confies a l'executeur de chaque batisseur
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "ObservableFlameBuilder");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
 	private Set<Observer> observers;
 	private Flame.Builder flameBuilder;
+	private long version;
+	// La fractale construite pour la version actuelle, ou null si elle n'a pas encore ete demandee
+	private Flame snapshot;
+	
+	// Etat des avertissements, lu et modifie uniquement par le fil qui utilise le batisseur
+	private int editDepth;
+	private boolean pending;
+	private boolean scheduled;
+	private long mergedNotifications;
+	private long coalescingDelay;
+	private Executor executor;
+	private final Runnable flush = new Runnable() {
+		@Override
+		public void run() {
+			scheduled = false;
+			if(editDepth == 0 && pending)
+				deliver();
+		}
+	};
 	
 	public ObservableFlameBuilder(Flame flame) {
 		observers = new HashSet<Observer>();
 		this.flameBuilder = new Flame.Builder(flame);
+		snapshot = flame;
 	}
 	
 	public void addObserver(Observer o) {
@@ -23,14 +71,119 @@ public class ObservableFlameBuilder {
 		observers.remove(o);
 	}
 	
+	/**
+	 * Avertit les observateurs d'une modification : tout de suite, a la fin de la modification en cours, 
+	 * ou a la fin du delai de regroupement s'il y en a un. <br />
+	 * Si un avertissement est deja en attente, celui-ci est regroupe avec lui.
+	 */
 	public void notifyObservers() {
+		if(pending) {
+			mergedNotifications++;
+			return;
+		}
+		pending = true;
+		if(editDepth == 0)
+			schedule();
+	}
+	
+	/**
+	 * Commence une modification : jusqu'au <code>{@link ObservableFlameBuilder#commitEdit()}</code> correspondant, 
+	 * les observateurs ne sont pas avertis. Les modifications peuvent etre imbriquees.
+	 */
+	public void beginEdit() {
+		editDepth++;
+	}
+	
+	/**
+	 * Termine une modification commencee par <code>{@link ObservableFlameBuilder#beginEdit()}</code>. <br />
+	 * A la fin de la modification la plus externe, les observateurs sont avertis une seule fois si quelque chose a change.
+	 * @throws IllegalStateException si aucune modification n'est en cours.
+	 */
+	public void commitEdit() {
+		if(editDepth == 0)
+			throw new IllegalStateException("Aucune modification n'est en cours !");
+		editDepth--;
+		if(editDepth == 0 && pending)
+			schedule();
+	}
+	
+	/**
+	 * Fixe le delai de regroupement des avertissements. 
+	 * Avec un delai nul (par defaut), les observateurs sont avertis tout de suite, sur le fil qui modifie le batisseur.
+	 * @param delay le delai, en millisecondes.
+	 * @param executor l'executeur des avertissements differes, qui doit les faire sur le fil qui utilise le batisseur (p.ex. avec <code>SwingUtilities.invokeLater()</code>) ; 
+	 * ignore si le delai est nul.
+	 * @throws IllegalArgumentException si le delai est negatif, ou si l'executeur est <code>null</code> alors que le delai ne l'est pas.
+	 */
+	public void setCoalescingDelay(long delay, Executor executor) {
+		if(delay < 0)
+			throw new IllegalArgumentException("Le delai de regroupement ne peut pas etre negatif !");
+		if(delay > 0 && executor == null)
+			throw new IllegalArgumentException("Un delai de regroupement demande un executeur !");
+		this.coalescingDelay = delay;
+		this.executor = executor;
+	}
+	
+	/**
+	 * Avertit tout de suite les observateurs de l'avertissement en attente, s'il y en a un et qu'aucune modification n'est en cours.
+	 */
+	public void flushNotifications() {
+		if(editDepth == 0 && pending)
+			deliver();
+	}
+	
+	/**
+	 * Retourne le nombre d'avertissements regroupes avec un autre depuis la construction du batisseur, 
+	 * c-a-d le nombre de modifications qui n'ont pas provoque d'avertissement a elles seules.
+	 * @return le nombre d'avertissements regroupes.
+	 */
+	public long mergedNotifications() {
+		return mergedNotifications;
+	}
+	
+	private void schedule() {
+		if(coalescingDelay == 0) {
+			deliver();
+		}
+		else if(!scheduled) {
+			scheduled = true;
+			final Executor target = executor;
+			SCHEDULER.schedule(new Runnable() {
+				@Override
+				public void run() {
+					target.execute(flush);
+				}
+			}, coalescingDelay, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	private void deliver() {
+		pending = false;
 		for(Observer o : observers) {
 			o.update();
 		}
 	}
 	
+	/**
+	 * Retourne la fractale dans son etat actuel. <br />
+	 * La fractale est gardee jusqu'a la prochaine modification : tant que la version ne change pas, c'est toujours la meme instance qui est retournee. 
+	 * Apres une modification, seules les transformations modifiees sont reconstruites, les autres sont partagees avec la fractale precedente.
+	 * @return la fractale, non modifiable.
+	 * @see ObservableFlameBuilder#version()
+	 */
 	public Flame build() {
-		return flameBuilder.build();
+		if(snapshot == null)
+			snapshot = flameBuilder.build();
+		return snapshot;
+	}
+	
+	/**
+	 * Retourne le numero de version du batisseur, augmente a chaque modification. <br />
+	 * Un consommateur peut ainsi savoir, en comparant deux numeros, si quelque chose a change depuis son dernier calcul.
+	 * @return le numero de version.
+	 */
+	public long version() {
+		return version;
 	}
 	
 	public int transformationCount() {
@@ -39,12 +192,12 @@ public class ObservableFlameBuilder {
 	
 	public void addTransformation(FlameTransformation f) {
 		flameBuilder.addTransformation(f);
-		notifyObservers();
+		changed();
 	}
 	
 	public void removeTransformation(int index) {
 		flameBuilder.removeTransformation(index);
-		notifyObservers();
+		changed();
 	}
 	
 	public AffineTransformation affineTransformation(int index) {
@@ -53,7 +206,7 @@ public class ObservableFlameBuilder {
 	
 	public void setAffineTransformation(int index, AffineTransformation newTransformation) {
 		flameBuilder.setAffineTransformation(index, newTransformation);
-		notifyObservers();
+		changed();
 	}
 	
 	public double variationWeight(int index, Variation variation) {
@@ -63,12 +216,25 @@ public class ObservableFlameBuilder {
 	public void setVariationWeight(int index, Variation variation, double newWeight) {
 		if(flameBuilder.variationWeight(index, variation) != newWeight) {
 			flameBuilder.setVariationWeight(index, variation, newWeight);
-			notifyObservers();
+			changed();
 		}
 	}
 	
+	/**
+	 * Retourne une copie de la liste des transformations de la fractale actuelle, qui partage ses transformations (non modifiables) avec <code>{@link ObservableFlameBuilder#build()}</code>.
+	 * @return la liste des transformations.
+	 */
 	public List<FlameTransformation> getTransfoListCopy() {
-		return flameBuilder.getTransfoListCopy();
+		return new ArrayList<FlameTransformation>(build().transformations());
+	}
+	
+	/**
+	 * Oublie la fractale gardee, passe a la version suivante et avertit les observateurs.
+	 */
+	private void changed() {
+		version++;
+		snapshot = null;
+		notifyObservers();
 	}
 	
 	public interface Observer {
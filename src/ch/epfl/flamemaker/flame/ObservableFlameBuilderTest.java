@@ -0,0 +1,127 @@
+package ch.epfl.flamemaker.flame;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import ch.epfl.flamemaker.geometry2d.AffineTransformation;
+import ch.epfl.flamemaker.geometry2d.Point;
+import ch.epfl.flamemaker.geometry2d.Rectangle;
+
+public class ObservableFlameBuilderTest {
+	private static class CountingObserver implements ObservableFlameBuilder.Observer {
+		int updates;
+
+		@Override
+		public void update() {
+			updates++;
+		}
+	}
+
+	@Test
+	public void testNotifiesImmediatelyByDefault() {
+		ObservableFlameBuilder builder = new ObservableFlameBuilder(FlameTest.newShark());
+		CountingObserver observer = new CountingObserver();
+		builder.addObserver(observer);
+		builder.setAffineTransformation(0, AffineTransformation.IDENTITY);
+		builder.setAffineTransformation(1, AffineTransformation.IDENTITY);
+		assertEquals(2, observer.updates);
+		assertEquals(0, builder.mergedNotifications());
+	}
+
+	@Test
+	public void testEditNotifiesOnceOnCommit() {
+		ObservableFlameBuilder builder = new ObservableFlameBuilder(FlameTest.newShark());
+		CountingObserver observer = new CountingObserver();
+		builder.addObserver(observer);
+		builder.beginEdit();
+		builder.setAffineTransformation(0, AffineTransformation.IDENTITY);
+		builder.beginEdit();
+		builder.setVariationWeight(1, Variation.ALL_VARIATIONS.get(3), 0.5);
+		builder.commitEdit();
+		builder.removeTransformation(2);
+		assertEquals(0, observer.updates);
+		builder.commitEdit();
+		assertEquals(1, observer.updates);
+		assertEquals(2, builder.mergedNotifications());
+
+		// Une modification sans changement n'avertit personne
+		builder.beginEdit();
+		builder.commitEdit();
+		assertEquals(1, observer.updates);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testCommitWithoutBeginFails() {
+		new ObservableFlameBuilder(FlameTest.newShark()).commitEdit();
+	}
+
+	@Test
+	public void testCoalescingDelayMergesQuickEdits() throws InterruptedException {
+		ObservableFlameBuilder builder = new ObservableFlameBuilder(FlameTest.newShark());
+		CountingObserver observer = new CountingObserver();
+		builder.addObserver(observer);
+		// Les avertissements differes sont executes par le fil du test, comme par le fil de Swing
+		final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+		builder.setCoalescingDelay(20, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				queue.add(command);
+			}
+		});
+		for(int i=0; i<5; i++) {
+			builder.setAffineTransformation(0, AffineTransformation.newRotation(i));
+		}
+		assertEquals(0, observer.updates);
+		Runnable flush = queue.poll(5, TimeUnit.SECONDS);
+		assertNotNull(flush);
+		flush.run();
+		assertEquals(1, observer.updates);
+		assertEquals(4, builder.mergedNotifications());
+
+		builder.setAffineTransformation(0, AffineTransformation.IDENTITY);
+		builder.flushNotifications();
+		assertEquals(2, observer.updates);
+		// L'avertissement differe, deja fait, n'est pas repete
+		queue.poll(5, TimeUnit.SECONDS).run();
+		assertEquals(2, observer.updates);
+	}
+
+	@Test
+	public void testBuildIsCachedUntilModified() {
+		ObservableFlameBuilder builder = new ObservableFlameBuilder(FlameTest.newShark());
+		long version = builder.version();
+		Flame first = builder.build();
+		assertSame(first, builder.build());
+
+		builder.setVariationWeight(1, Variation.ALL_VARIATIONS.get(3), 0.5);
+		assertNotEquals(version, builder.version());
+		Flame second = builder.build();
+		assertNotSame(first, second);
+		// Seule la transformation modifiee est reconstruite
+		assertSame(first.transformations().get(0), second.transformations().get(0));
+		assertNotSame(first.transformations().get(1), second.transformations().get(1));
+		assertSame(first.transformations().get(2), second.transformations().get(2));
+
+		// Un poids inchange ne cree pas de nouvelle version
+		version = builder.version();
+		builder.setVariationWeight(1, Variation.ALL_VARIATIONS.get(3), 0.5);
+		assertEquals(version, builder.version());
+		assertSame(second, builder.build());
+	}
+
+	@Test
+	public void testBuiltTransformationsAreNotChangedByLaterEdits() {
+		ObservableFlameBuilder builder = new ObservableFlameBuilder(FlameTest.newShark());
+		Flame before = builder.build();
+		FlameAccumulator expected = before.compute(new Rectangle(new Point(-0.25, 0), 5, 4), 50, 40, 10);
+		builder.setVariationWeight(0, Variation.ALL_VARIATIONS.get(3), 0.5);
+		builder.setVariationWeight(1, Variation.ALL_VARIATIONS.get(0), 0);
+		FlameTest.assertSameAccumulator(expected, before.compute(new Rectangle(new Point(-0.25, 0), 5, 4), 50, 40, 10));
+	}
+}
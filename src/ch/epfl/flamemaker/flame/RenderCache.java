@@ -0,0 +1,499 @@
+package ch.epfl.flamemaker.flame;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.epfl.flamemaker.geometry2d.Rectangle;
+
+/**
+ * <p>La classe <code>RenderCache</code> garde les accumulateurs deja calcules, pour ne pas rejouer le jeu du chaos lorsqu'une meme fractale est demandee a nouveau
+ * avec le meme cadre, la meme taille, la meme densite et la meme graine.</p>
+ * <p>Chaque calcul est identifie par une empreinte SHA-256 de tout ce qui determine son resultat : les coefficients et les poids des transformations,
+ * le cadre, la largeur, la hauteur, la densite, la graine et la variante de <code>compute()</code>. Deux fractales egales ont donc la meme empreinte,
+ * meme si ce ne sont pas les memes objets. <br />
+ * Le cache a deux niveaux : <br />
+ * - en memoire, les accumulateurs les plus recemment utilises, dans la limite de <code><b>memoryBudget</b></code> octets (12 octets par case) ; <br />
+ * - optionnellement, sur disque, un fichier par accumulateur dans le dossier <code><b>directory</b></code>, nomme d'apres son empreinte,
+ * dans la limite de <code><b>diskBudget</b></code> octets : au-dela, les fichiers les moins recemment ecrits ou relus sont supprimes.</p>
+ * <p>Le cache disque est facultatif : un accumulateur qui ne peut pas y etre ecrit reste utilisable. 
+ * Ces echecs sont comptes par <code>{@link RenderCache#diskErrors()}</code>, et le dernier est donne par <code>{@link RenderCache#lastDiskError()}</code>.</p>
+ * <p>Si plusieurs fils demandent en meme temps un calcul qui n'est pas encore dans le cache, un seul le fait et les autres attendent son resultat. <br />
+ * Les accumulateurs n'etant pas modifiables, ceux du cache peuvent etre partages sans copie.</p>
+ */
+public final class RenderCache {
+	/**
+	 * Le budget memoire par defaut : 64 Mo.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+	/**
+	 * Le budget disque par defaut : 1 Go.
+	 */
+	public static final long DEFAULT_DISK_BUDGET = 1L << 30;
+
+	private static final int FILE_MAGIC = 0x464C4143;
+	private static final String FILE_EXTENSION = ".acc";
+	private static final int HEADER_SIZE = 12;
+
+	private final long memoryBudget;
+	private final File directory;
+	private final long diskBudget;
+	private final Object diskLock = new Object();
+	private volatile IOException lastDiskError;
+	private final AtomicLong diskErrors = new AtomicLong();
+	private final LinkedHashMap<String, FlameAccumulator> memory = new LinkedHashMap<String, FlameAccumulator>(16, 0.75f, true);
+	private long memoryBytes;
+	private final ConcurrentMap<String, FutureTask<FlameAccumulator>> inFlight = new ConcurrentHashMap<String, FutureTask<FlameAccumulator>>();
+	private final AtomicLong memoryHits = new AtomicLong(), diskHits = new AtomicLong(), misses = new AtomicLong();
+
+	/**
+	 * Construit un cache en memoire seulement.
+	 * @param memoryBudget le nombre maximal d'octets occupes par les accumulateurs gardes en memoire.
+	 * @throws IllegalArgumentException si le budget est negatif.
+	 */
+	public RenderCache(long memoryBudget) {
+		this(memoryBudget, null);
+	}
+
+	/**
+	 * Construit un cache en memoire et sur disque, avec un budget disque de <code>{@value #DEFAULT_DISK_BUDGET}</code> octets.
+	 * @param memoryBudget le nombre maximal d'octets occupes par les accumulateurs gardes en memoire.
+	 * @param directory le dossier des accumulateurs enregistres sur disque, cree si necessaire, ou <code>null</code> pour ne rien enregistrer.
+	 * @throws IllegalArgumentException si le budget est negatif, ou si le dossier ne peut pas etre cree.
+	 */
+	public RenderCache(long memoryBudget, File directory) {
+		this(memoryBudget, directory, DEFAULT_DISK_BUDGET);
+	}
+
+	/**
+	 * Construit un cache en memoire et sur disque.
+	 * @param memoryBudget le nombre maximal d'octets occupes par les accumulateurs gardes en memoire.
+	 * @param directory le dossier des accumulateurs enregistres sur disque, cree si necessaire, ou <code>null</code> pour ne rien enregistrer.
+	 * @param diskBudget le nombre maximal d'octets occupes par les fichiers d'accumulateurs du dossier.
+	 * @throws IllegalArgumentException si l'un des budgets est negatif, ou si le dossier ne peut pas etre cree.
+	 */
+	public RenderCache(long memoryBudget, File directory, long diskBudget) {
+		if(memoryBudget < 0 || diskBudget < 0)
+			throw new IllegalArgumentException("Les budgets memoire et disque ne peuvent pas etre negatifs !");
+		if(directory != null && !directory.isDirectory() && !directory.mkdirs())
+			throw new IllegalArgumentException("Impossible de creer le dossier " + directory + " !");
+		this.memoryBudget = memoryBudget;
+		this.directory = directory;
+		this.diskBudget = diskBudget;
+	}
+
+	/**
+	 * Retourne l'accumulateur de <code>{@link Flame#compute(Rectangle, int, int, int) flame.compute(frame, width, height, density)}</code>,
+	 * calcule seulement s'il n'est pas dans le cache.
+	 * @return l'accumulateur de la fractale.
+	 */
+	public FlameAccumulator compute(final Flame flame, final Rectangle frame, final int width, final int height, final int density) {
+		return get(key(flame, frame, width, height, density, Flame.DEFAULT_SEED, false), new Callable<FlameAccumulator>() {
+			@Override
+			public FlameAccumulator call() {
+				return flame.compute(frame, width, height, density);
+			}
+		});
+	}
+
+	/**
+	 * Retourne l'accumulateur de <code>{@link Flame#compute(Rectangle, int, int, int, int, long) flame.compute(frame, width, height, density, threads, seed)}</code>,
+	 * calcule seulement s'il n'est pas dans le cache. Le nombre de fils ne change pas le resultat, et ne fait donc pas partie de l'empreinte.
+	 * @return l'accumulateur de la fractale.
+	 */
+	public FlameAccumulator compute(final Flame flame, final Rectangle frame, final int width, final int height, final int density, final int threads, final long seed) {
+		return get(key(flame, frame, width, height, density, seed, true), new Callable<FlameAccumulator>() {
+			@Override
+			public FlameAccumulator call() {
+				return flame.compute(frame, width, height, density, threads, seed);
+			}
+		});
+	}
+
+	/**
+	 * Retourne l'accumulateur de <code>{@link Flame#compute(Rectangle, int, int, int) flame.compute(frame, width, height, density)}</code>
+	 * s'il est deja dans le cache (en memoire ou sur disque), sans jamais le calculer.
+	 * @return l'accumulateur de la fractale, ou <code>null</code> s'il n'est pas dans le cache.
+	 */
+	public FlameAccumulator cached(Flame flame, Rectangle frame, int width, int height, int density) {
+		String key = key(flame, frame, width, height, density, Flame.DEFAULT_SEED, false);
+		FlameAccumulator acc = fromMemory(key);
+		if(acc != null) {
+			memoryHits.incrementAndGet();
+			return acc;
+		}
+		acc = fromDisk(key);
+		if(acc != null) {
+			diskHits.incrementAndGet();
+			toMemory(key, acc);
+		}
+		return acc;
+	}
+
+	/**
+	 * Ajoute au cache l'accumulateur de <code>{@link Flame#compute(Rectangle, int, int, int) flame.compute(frame, width, height, density)}</code>
+	 * calcule ailleurs, p.ex. par une <code>{@link FlameRenderSession}</code> arrivee a <code>density*width*height - 1</code> points avec la graine par defaut. <br />
+	 * L'accumulateur doit etre exactement celui de <code>compute()</code> : le cache ne le verifie pas.
+	 * @param acc l'accumulateur de la fractale.
+	 * @throws IllegalArgumentException si l'accumulateur n'a pas la largeur et la hauteur donnees.
+	 */
+	public void put(Flame flame, Rectangle frame, int width, int height, int density, FlameAccumulator acc) {
+		if(acc.width() != width || acc.height() != height)
+			throw new IllegalArgumentException("L'accumulateur n'a pas la taille demandee !");
+		String key = key(flame, frame, width, height, density, Flame.DEFAULT_SEED, false);
+		toDisk(key, acc);
+		toMemory(key, acc);
+	}
+
+	/**
+	 * Retourne l'accumulateur d'empreinte donnee : depuis la memoire, depuis le disque, ou en le calculant.
+	 */
+	private FlameAccumulator get(final String key, final Callable<FlameAccumulator> computation) {
+		FlameAccumulator acc = fromMemory(key);
+		if(acc != null) {
+			memoryHits.incrementAndGet();
+			return acc;
+		}
+		FutureTask<FlameAccumulator> task = new FutureTask<FlameAccumulator>(new Callable<FlameAccumulator>() {
+			@Override
+			public FlameAccumulator call() throws Exception {
+				FlameAccumulator acc = fromDisk(key);
+				if(acc != null) {
+					diskHits.incrementAndGet();
+				}
+				else {
+					misses.incrementAndGet();
+					acc = computation.call();
+					toDisk(key, acc);
+				}
+				toMemory(key, acc);
+				return acc;
+			}
+		});
+		FutureTask<FlameAccumulator> running = inFlight.putIfAbsent(key, task);
+		if(running == null) {
+			running = task;
+			try {
+				task.run();
+			}
+			finally {
+				inFlight.remove(key, task);
+			}
+		}
+		boolean interrupted = false;
+		try {
+			while(true) {
+				try {
+					return running.get();
+				} catch(InterruptedException e) {
+					// Le calcul est fait par un autre fil : on attend quand meme son resultat
+					interrupted = true;
+				}
+			}
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			// Le calcul d'un autre fil a ete annule : on le refait, sauf si c'est ce fil qui est interrompu
+			if(cause instanceof CancellationException && running != task && !interrupted && !Thread.currentThread().isInterrupted())
+				return get(key, computation);
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if(cause instanceof Error)
+				throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+		finally {
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private FlameAccumulator fromMemory(String key) {
+		synchronized(memory) {
+			return memory.get(key);
+		}
+	}
+
+	private void toMemory(String key, FlameAccumulator acc) {
+		long bytes = bytes(acc);
+		if(bytes > memoryBudget)
+			return;
+		synchronized(memory) {
+			FlameAccumulator previous = memory.put(key, acc);
+			if(previous != null)
+				memoryBytes -= bytes(previous);
+			memoryBytes += bytes;
+			Iterator<Map.Entry<String, FlameAccumulator>> eldest = memory.entrySet().iterator();
+			while(memoryBytes > memoryBudget) {
+				memoryBytes -= bytes(eldest.next().getValue());
+				eldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * Retourne la place occupee en memoire par un accumulateur : un <code>int</code> et un <code>long</code> par case.
+	 */
+	private static long bytes(FlameAccumulator acc) {
+		return 12L*acc.width()*acc.height();
+	}
+
+	/**
+	 * Relit l'accumulateur d'empreinte donnee sur le disque, ou retourne <code>null</code> s'il n'y est pas ou n'est pas lisible.
+	 */
+	private FlameAccumulator fromDisk(String key) {
+		if(directory == null)
+			return null;
+		File file = new File(directory, key + FILE_EXTENSION);
+		if(!file.isFile())
+			return null;
+		try {
+			RandomAccessFile input = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = input.getChannel();
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				readFully(channel, header);
+				header.flip();
+				if(header.getInt() != FILE_MAGIC)
+					throw new IOException("Le fichier " + file + " n'est pas un accumulateur !");
+				int width = header.getInt(), height = header.getInt();
+				long size = (long) width*height;
+				if(width <= 0 || height <= 0 || channel.size() != HEADER_SIZE + 12*size)
+					throw new IOException("Le fichier " + file + " est tronque !");
+				ByteBuffer data = ByteBuffer.allocate((int) (12*size));
+				readFully(channel, data);
+				data.flip();
+				int[] hitCount = new int[(int) size];
+				long[] colorIndexSum = new long[(int) size];
+				data.asIntBuffer().get(hitCount);
+				data.position(4*(int) size);
+				data.asLongBuffer().get(colorIndexSum);
+				// Un fichier relu redevient le plus recent : il sera supprime en dernier
+				file.setLastModified(System.currentTimeMillis());
+				return FlameAccumulator.of(width, height, hitCount, colorIndexSum);
+			}
+			finally {
+				input.close();
+			}
+		} catch(IOException | IllegalArgumentException e) {
+			// Un fichier illisible est un simple echec du cache : l'accumulateur sera recalcule et reecrit
+			file.delete();
+			return null;
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer) < 0)
+				throw new IOException("Fin de fichier inattendue !");
+		}
+	}
+
+	/**
+	 * Enregistre l'accumulateur sur le disque, dans un fichier temporaire force sur le disque puis renomme, pour qu'un fichier a moitie ecrit ne soit jamais relu, meme apres une panne du systeme.
+	 */
+	private void toDisk(String key, FlameAccumulator acc) {
+		long bytes = HEADER_SIZE + bytes(acc);
+		if(directory == null || bytes > Integer.MAX_VALUE || bytes > diskBudget)
+			return;
+		File file = new File(directory, key + FILE_EXTENSION);
+		try {
+			File temporary = File.createTempFile(key, ".tmp", directory);
+			try {
+				int size = acc.width()*acc.height();
+				ByteBuffer data = ByteBuffer.allocate((int) bytes);
+				data.putInt(FILE_MAGIC).putInt(acc.width()).putInt(acc.height());
+				for(int i=0; i<size; i++) {
+					data.putInt(acc.hitCount(i));
+				}
+				for(int i=0; i<size; i++) {
+					data.putLong(acc.colorIndexSum(i));
+				}
+				data.flip();
+				FileChannel channel = new FileOutputStream(temporary).getChannel();
+				try {
+					while(data.hasRemaining()) {
+						channel.write(data);
+					}
+					// Sans cela, apres une panne, le renommage pourrait atteindre le disque avant les donnees, et un fichier de la bonne taille mais rempli de zeros serait relu
+					channel.force(true);
+				}
+				finally {
+					channel.close();
+				}
+				try {
+					Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch(AtomicMoveNotSupportedException e) {
+					Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			finally {
+				Files.deleteIfExists(temporary.toPath());
+			}
+		} catch(IOException e) {
+			// Le cache disque est facultatif : l'accumulateur reste utilisable, l'echec est seulement compte
+			lastDiskError = e;
+			diskErrors.incrementAndGet();
+			return;
+		}
+		trimDisk(file);
+	}
+
+	/**
+	 * Supprime les fichiers d'accumulateurs les moins recemment utilises (d'apres leur date de modification) jusqu'a respecter le budget disque,
+	 * sauf le fichier qui vient d'etre ecrit.
+	 */
+	private void trimDisk(File written) {
+		synchronized(diskLock) {
+			File[] files = directory.listFiles(new FileFilter() {
+				@Override
+				public boolean accept(File file) {
+					return file.isFile() && file.getName().endsWith(FILE_EXTENSION);
+				}
+			});
+			if(files == null)
+				return;
+			long total = 0;
+			final Map<File, Long> modified = new HashMap<File, Long>();
+			for(File file : files) {
+				total += file.length();
+				modified.put(file, file.lastModified());
+			}
+			if(total <= diskBudget)
+				return;
+			Arrays.sort(files, new Comparator<File>() {
+				@Override
+				public int compare(File a, File b) {
+					return Long.compare(modified.get(a), modified.get(b));
+				}
+			});
+			for(int i=0; i<files.length && total > diskBudget; i++) {
+				if(files[i].equals(written))
+					continue;
+				long length = files[i].length();
+				if(files[i].delete())
+					total -= length;
+			}
+		}
+	}
+
+	/**
+	 * Retourne l'empreinte d'un calcul, en hexadecimal.
+	 * @param parallel <code>true</code> pour la variante parallele de <code>compute()</code>, <code>false</code> pour la variante historique.
+	 */
+	static String key(Flame flame, Rectangle frame, int width, int height, int density, long seed, boolean parallel) {
+		int variations = Variation.ALL_VARIATIONS.size();
+		ByteBuffer data = ByteBuffer.allocate(64 + flame.transformations().size()*8*(6 + variations));
+		data.put((byte) 1).put((byte) (parallel ? 1 : 0));
+		data.putDouble(frame.center().x()).putDouble(frame.center().y()).putDouble(frame.width()).putDouble(frame.height());
+		data.putInt(width).putInt(height).putInt(density).putLong(seed);
+		data.putInt(flame.transformations().size()).putShort((short) variations);
+		for(FlameTransformation transformation : flame.transformations()) {
+			for(double coefficient : transformation.affineTransformation().coefficients()) {
+				data.putDouble(coefficient);
+			}
+			for(int j=0; j<variations; j++) {
+				data.putDouble(transformation.variationWeight(j));
+			}
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(data.array(), 0, data.position());
+			StringBuilder hex = new StringBuilder(64);
+			for(byte b : digest.digest()) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch(NoSuchAlgorithmException e) {
+			// Toute machine virtuelle Java doit fournir SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Retourne le nombre d'accumulateurs trouves en memoire.
+	 * @return le nombre de succes en memoire.
+	 */
+	public long memoryHits() {
+		return memoryHits.get();
+	}
+
+	/**
+	 * Retourne le nombre d'accumulateurs relus sur le disque.
+	 * @return le nombre de succes sur disque.
+	 */
+	public long diskHits() {
+		return diskHits.get();
+	}
+
+	/**
+	 * Retourne le nombre d'accumulateurs qu'il a fallu calculer.
+	 * @return le nombre d'echecs.
+	 */
+	public long misses() {
+		return misses.get();
+	}
+
+	/**
+	 * Retourne le nombre d'accumulateurs qui n'ont pas pu etre ecrits sur le disque.
+	 * @return le nombre d'echecs d'ecriture.
+	 */
+	public long diskErrors() {
+		return diskErrors.get();
+	}
+
+	/**
+	 * Retourne l'erreur de la derniere ecriture sur le disque qui a echoue, ou <code>null</code> si aucune n'a echoue. 
+	 * Une ecriture reussie ensuite ne l'efface pas.
+	 * @return l'erreur du dernier echec d'ecriture.
+	 */
+	public IOException lastDiskError() {
+		return lastDiskError;
+	}
+
+	/**
+	 * Retourne la place occupee par les accumulateurs gardes en memoire.
+	 * @return le nombre d'octets.
+	 */
+	public long memoryBytes() {
+		synchronized(memory) {
+			return memoryBytes;
+		}
+	}
+
+	/**
+	 * Oublie les accumulateurs gardes en memoire (ceux du disque restent).
+	 */
+	public void clearMemory() {
+		synchronized(memory) {
+			memory.clear();
+			memoryBytes = 0;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RenderCache [" + memoryBytes() + "/" + memoryBudget + " octets" + (directory != null ? ", " + directory : "") + "]";
+	}
+}
@@ -0,0 +1,184 @@
+package ch.epfl.flamemaker.flame;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import ch.epfl.flamemaker.geometry2d.Point;
+import ch.epfl.flamemaker.geometry2d.Rectangle;
+
+public class RenderCacheTest {
+	private static final Rectangle FRAME = new Rectangle(new Point(-0.25, 0.0), 5, 4);
+
+	@Test
+	public void testMemoryHitSkipsComputation() {
+		RenderCache cache = new RenderCache(RenderCache.DEFAULT_MEMORY_BUDGET);
+		FlameAccumulator first = cache.compute(FlameTest.newShark(), FRAME, 50, 40, 10);
+		FlameTest.assertSameAccumulator(FlameTest.newShark().compute(FRAME, 50, 40, 10), first);
+		// Une autre instance de la meme fractale a la meme empreinte
+		assertSame(first, cache.compute(FlameTest.newShark(), FRAME, 50, 40, 10));
+		assertEquals(1, cache.misses());
+		assertEquals(1, cache.memoryHits());
+		assertEquals(12*50*40, cache.memoryBytes());
+
+		cache.compute(FlameTest.newShark(), FRAME, 50, 40, 11);
+		cache.compute(FlameTest.newShark(), FRAME, 50, 40, 10, 2, Flame.DEFAULT_SEED);
+		assertEquals(3, cache.misses());
+	}
+
+	@Test
+	public void testKeyDependsOnEverySetting() {
+		Flame shark = FlameTest.newShark();
+		String key = RenderCache.key(shark, FRAME, 50, 40, 10, 1, true);
+		assertEquals(key, RenderCache.key(FlameTest.newShark(), new Rectangle(new Point(-0.25, 0.0), 5, 4), 50, 40, 10, 1, true));
+		assertNotEquals(key, RenderCache.key(shark, FRAME, 50, 40, 10, 1, false));
+		assertNotEquals(key, RenderCache.key(shark, FRAME, 50, 40, 10, 2, true));
+		assertNotEquals(key, RenderCache.key(shark, FRAME, 40, 50, 10, 1, true));
+		assertNotEquals(key, RenderCache.key(shark, new Rectangle(new Point(-0.25, 0.0), 5, 4.5), 50, 40, 10, 1, true));
+		Flame.Builder builder = new Flame.Builder(shark);
+		builder.setVariationWeight(0, Variation.ALL_VARIATIONS.get(2), 0.5);
+		assertNotEquals(key, RenderCache.key(builder.build(), FRAME, 50, 40, 10, 1, true));
+	}
+
+	@Test
+	public void testSessionResultCanBePut() {
+		RenderCache cache = new RenderCache(RenderCache.DEFAULT_MEMORY_BUDGET);
+		assertNull(cache.cached(FlameTest.newShark(), FRAME, 50, 40, 10));
+		FlameRenderSession session = new FlameRenderSession(FlameTest.newShark(), FRAME, 50, 40);
+		session.iterate(10*50*40 - 1);
+		FlameAccumulator acc = session.snapshot();
+		cache.put(FlameTest.newShark(), FRAME, 50, 40, 10, acc);
+		assertSame(acc, cache.cached(FlameTest.newShark(), FRAME, 50, 40, 10));
+		assertSame(acc, cache.compute(FlameTest.newShark(), FRAME, 50, 40, 10));
+		FlameTest.assertSameAccumulator(FlameTest.newShark().compute(FRAME, 50, 40, 10), acc);
+		assertEquals(0, cache.misses());
+		assertEquals(2, cache.memoryHits());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testPutRejectsWrongSize() {
+		FlameAccumulator acc = new FlameRenderSession(FlameTest.newShark(), FRAME, 50, 40).snapshot();
+		new RenderCache(RenderCache.DEFAULT_MEMORY_BUDGET).put(FlameTest.newShark(), FRAME, 40, 50, 10, acc);
+	}
+
+	@Test
+	public void testMemoryBudgetEvictsLeastRecentlyUsed() {
+		RenderCache cache = new RenderCache(2*12*50*40);
+		FlameAccumulator a = cache.compute(FlameTest.newShark(), FRAME, 50, 40, 1);
+		cache.compute(FlameTest.newShark(), FRAME, 50, 40, 2);
+		cache.compute(FlameTest.newShark(), FRAME, 50, 40, 1);
+		cache.compute(FlameTest.newShark(), FRAME, 50, 40, 3);
+		assertEquals(2*12*50*40, cache.memoryBytes());
+		assertSame(a, cache.compute(FlameTest.newShark(), FRAME, 50, 40, 1));
+		cache.compute(FlameTest.newShark(), FRAME, 50, 40, 2);
+		assertEquals(4, cache.misses());
+	}
+
+	@Test
+	public void testDiskTierSurvivesNewCache() throws IOException {
+		File directory = Files.createTempDirectory("rendercache").toFile();
+		try {
+			FlameAccumulator computed = new RenderCache(0, directory).compute(FlameTest.newShark(), FRAME, 50, 40, 10, 1, 7);
+			RenderCache cache = new RenderCache(0, directory);
+			FlameAccumulator read = cache.compute(FlameTest.newShark(), FRAME, 50, 40, 10, 1, 7);
+			assertEquals(1, cache.diskHits());
+			assertEquals(0, cache.misses());
+			FlameTest.assertSameAccumulator(computed, read);
+			for(int i=0; i<50*40; i++) {
+				assertEquals(computed.colorIndexSum(i), read.colorIndexSum(i));
+			}
+		}
+		finally {
+			for(File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void testDiskBudgetRemovesLeastRecentlyUsed() throws IOException {
+		File directory = Files.createTempDirectory("rendercache").toFile();
+		try {
+			long fileSize = 12 + 12*50*40;
+			RenderCache cache = new RenderCache(0, directory, 2*fileSize);
+			cache.compute(FlameTest.newShark(), FRAME, 50, 40, 1);
+			cache.compute(FlameTest.newShark(), FRAME, 50, 40, 2);
+			File first = new File(directory, RenderCache.key(FlameTest.newShark(), FRAME, 50, 40, 1, Flame.DEFAULT_SEED, false) + ".acc");
+			File second = new File(directory, RenderCache.key(FlameTest.newShark(), FRAME, 50, 40, 2, Flame.DEFAULT_SEED, false) + ".acc");
+			first.setLastModified(System.currentTimeMillis() - 60000);
+			second.setLastModified(System.currentTimeMillis() - 30000);
+			cache.compute(FlameTest.newShark(), FRAME, 50, 40, 3);
+			assertEquals(2, directory.listFiles().length);
+			assertFalse(first.exists());
+			assertTrue(second.exists());
+		}
+		finally {
+			for(File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void testDiskErrorsAreCounted() throws IOException {
+		File directory = Files.createTempDirectory("rendercache").toFile();
+		RenderCache cache = new RenderCache(0, directory);
+		assertTrue(directory.delete());
+		FlameAccumulator acc = cache.compute(FlameTest.newShark(), FRAME, 50, 40, 1);
+		FlameTest.assertSameAccumulator(FlameTest.newShark().compute(FRAME, 50, 40, 1), acc);
+		assertEquals(1, cache.diskErrors());
+		IOException error = cache.lastDiskError();
+		assertNotNull(error);
+		
+		// Une ecriture reussie ensuite n'efface pas le dernier echec
+		assertTrue(directory.mkdir());
+		try {
+			cache.compute(FlameTest.newShark(), FRAME, 50, 40, 2);
+			assertEquals(1, directory.listFiles().length);
+			assertEquals(1, cache.diskErrors());
+			assertSame(error, cache.lastDiskError());
+		}
+		finally {
+			for(File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void testConcurrentRequestsComputeOnce() throws Exception {
+		final RenderCache cache = new RenderCache(RenderCache.DEFAULT_MEMORY_BUDGET);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<FlameAccumulator>> results = new ArrayList<Future<FlameAccumulator>>();
+			for(int i=0; i<8; i++) {
+				results.add(executor.submit(new Callable<FlameAccumulator>() {
+					@Override
+					public FlameAccumulator call() {
+						return cache.compute(FlameTest.newShark(), FRAME, 100, 80, 20);
+					}
+				}));
+			}
+			for(Future<FlameAccumulator> result : results) {
+				assertSame(results.get(0).get(), result.get());
+			}
+			assertEquals(1, cache.misses());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+}
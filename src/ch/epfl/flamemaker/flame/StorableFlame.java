@@ -1,11 +1,24 @@
 package ch.epfl.flamemaker.flame;
 
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 
 import ch.epfl.flamemaker.color.Palette;
 import ch.epfl.flamemaker.geometry2d.Rectangle;
 
+/**
+ * <p>La classe <code>StorableFlame</code> est la forme serialisable d'une fractale de la bibliotheque : 
+ * son nom <code><b>name</b></code>, ses transformations <code><b>flameTransfoList</b></code>, son cadre <code><b>frame</b></code> et sa palette <code><b>pal</b></code>.</p>
+ * <p>Elle ne sert qu'a lire et ecrire les fichiers de fractales (<code>flamelist.sav</code>) : son nom, son paquetage et ses champs ne doivent pas changer, 
+ * pour que les fichiers deja ecrits restent lisibles. Le reste du programme utilise <code>{@link FlameDocument}</code>.</p>
+ */
 public class StorableFlame implements Serializable {
 	/**
 	 * 
@@ -16,14 +29,46 @@ public class StorableFlame implements Serializable {
 	private Rectangle frame;
 	private Palette pal;
 	
-	public StorableFlame(PresetFlame flame) {
-		name = flame.getName();
-		flameTransfoList = flame.getObservableFlameBuilder().getTransfoListCopy();
-		frame = flame.getFrame();
-		pal = flame.getPalette();
+	/**
+	 * Construit la forme serialisable du document donne.
+	 * @param document le document a enregistrer.
+	 */
+	public StorableFlame(FlameDocument document) {
+		name = document.getName();
+		flameTransfoList = new ArrayList<FlameTransformation>(document.getTransformations());
+		frame = document.getFrame();
+		pal = document.getPalette();
+	}
+	
+	/**
+	 * Retourne le document decrit par cette forme serialisable.
+	 * @return le document.
+	 */
+	public FlameDocument toDocument() {
+		return new FlameDocument(name, flameTransfoList, frame, pal);
 	}
 	
-	public PresetFlame restoreFlame() {
-		return new PresetFlame(name, flameTransfoList, frame, pal);
+	/**
+	 * Lit toutes les fractales d'un fichier ecrit par l'interface graphique (une suite d'objets <code>StorableFlame</code> dans un meme <code>ObjectOutputStream</code>), 
+	 * jusqu'a la fin du fichier.
+	 * @param file le fichier a lire.
+	 * @return la liste des fractales, dans l'ordre du fichier.
+	 * @throws IOException si le fichier ne peut pas etre lu, ou ne contient pas des <code>StorableFlame</code>.
+	 */
+	public static List<FlameDocument> readList(File file) throws IOException {
+		List<FlameDocument> flames = new ArrayList<FlameDocument>();
+		ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			while(true) {
+				flames.add(((StorableFlame) input.readObject()).toDocument());
+			}
+		} catch(EOFException e) {
+			return flames;
+		} catch(ClassNotFoundException | ClassCastException e) {
+			throw new IOException("Le fichier " + file + " ne contient pas une liste de fractales !", e);
+		}
+		finally {
+			input.close();
+		}
 	}
 }
@@ -0,0 +1,53 @@
+package ch.epfl.flamemaker.flame;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.List;
+
+import org.junit.Test;
+
+import ch.epfl.flamemaker.color.InterpolatedPalette;
+import ch.epfl.flamemaker.geometry2d.Point;
+import ch.epfl.flamemaker.geometry2d.Rectangle;
+
+public class StorableFlameTest {
+	@Test
+	public void testReadListRestoresDocuments() throws IOException {
+		File file = File.createTempFile("flamelist", ".sav");
+		try {
+			ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(file));
+			output.writeObject(new StorableFlame(FlameTest.newSharkDocument("Shark")));
+			output.writeObject(new StorableFlame(FlameTest.newSharkDocument("Shark 2")));
+			output.close();
+
+			List<FlameDocument> documents = StorableFlame.readList(file);
+			assertEquals(2, documents.size());
+			assertEquals("Shark", documents.get(0).getName());
+			assertEquals("Shark 2", documents.get(1).getName());
+			FlameDocument restored = documents.get(0);
+			assertEquals(3, restored.getTransformations().size());
+			assertEquals(-0.25, restored.getFrame().center().x(), 0);
+			assertEquals(4, restored.getFrame().height(), 0);
+
+			Rectangle frame = restored.getFrame();
+			FlameTest.assertSameAccumulator(FlameTest.newShark().compute(frame, 50, 40, 10), restored.toFlame().compute(frame, 50, 40, 10));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testDocumentTransformationsAreUnmodifiable() {
+		FlameTest.newSharkDocument("Shark").getTransformations().clear();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDocumentRejectsMissingName() {
+		new FlameDocument(null, FlameTest.newSharkTransformations(), new Rectangle(new Point(0, 0), 1, 1), InterpolatedPalette.generateRGBPal());
+	}
+}
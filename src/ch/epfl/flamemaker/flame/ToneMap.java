@@ -0,0 +1,157 @@
+package ch.epfl.flamemaker.flame;
+
+/**
+ * <p>La classe <code>ToneMap</code> transforme le nombre de points d'une case en intensite, c-a-d la proportion de la couleur de la palette dans le melange avec la couleur de fond.</p>
+ * <p>L'intensite de base d'une case est <code>log(hits+1)/log(maxPoints+1)</code>, comme dans <code>{@link FlameAccumulator#intensity(int, int)}</code>. Elle est ensuite modifiee par trois reglages : <br />
+ * <code><b>brightness</b></code> multiplie l'intensite de base (le resultat etant limite a 1), <br />
+ * <code><b>gamma</b></code> l'eleve a la puissance <code>1/gamma</code>, pour eclaircir les zones peu denses lorsque gamma depasse 1, <br />
+ * <code><b>vibrancy</b></code>, entre 0 et 1, indique si la correction gamma s'applique a l'intensite (1 : les couleurs gardent leur saturation)
+ * ou a chaque composante de la couleur (0 : les couleurs peu denses tendent vers le gris).</p>
+ * <p>Les logarithmes <code>log(hits+1)</code> sont calcules une fois pour toutes dans une table commune a toutes les instances, agrandie au besoin jusqu'a <code>{@value #TABLE_LIMIT}</code> points. <br />
+ * Chaque accumulateur garde en plus la table d'intensite du dernier mappage avec lequel il a ete colorie (<code>{@link ToneMap#intensityTable(int)}</code>) :
+ * colorier plusieurs fois un meme accumulateur, par exemple avec differentes palettes ou couleurs de fond, ne refait aucun calcul de logarithme ni de puissance,
+ * meme si d'autres accumulateurs sont colories entre-temps avec le meme mappage.</p>
+ * <p>Une instance n'est pas modifiable et peut etre partagee entre plusieurs fils d'execution. Avec les reglages par defaut (<code>{@link ToneMap#DEFAULT}</code>),
+ * l'intensite est exactement celle de <code>{@link FlameAccumulator#intensity(int, int)}</code>.</p>
+ * @see FlameAccumulator#colorize(ToneMap, ch.epfl.flamemaker.color.PaletteTable, ch.epfl.flamemaker.color.Color, int[])
+ */
+public final class ToneMap {
+	/**
+	 * Le mappage par defaut : luminosite, gamma et vibrance valent 1.
+	 */
+	public static final ToneMap DEFAULT = new ToneMap(1, 1, 1);
+	/**
+	 * Le nombre de points au-dela duquel les logarithmes et les intensites ne sont plus mis en table, mais calcules a chaque fois.
+	 */
+	static final int TABLE_LIMIT = 1 << 20;
+
+	private static volatile double[] logTable = { 0 };
+
+	private final double brightness, gamma, vibrancy;
+
+	/**
+	 * Construit un mappage avec les reglages donnes.
+	 * @param brightness la luminosite, strictement positive.
+	 * @param gamma le gamma, strictement positif.
+	 * @param vibrancy la vibrance, entre 0 et 1.
+	 * @throws IllegalArgumentException si l'un des reglages n'est pas valide.
+	 */
+	public ToneMap(double brightness, double gamma, double vibrancy) {
+		if(!(brightness > 0) || !(gamma > 0) || !(vibrancy >= 0 && vibrancy <= 1))
+			throw new IllegalArgumentException("Reglages invalides : la luminosite et le gamma doivent etre strictement positifs, la vibrance entre 0 et 1 !");
+		this.brightness = brightness;
+		this.gamma = gamma;
+		this.vibrancy = vibrancy;
+	}
+
+	/**
+	 * Retourne la luminosite.
+	 * @return la luminosite.
+	 */
+	public double brightness() {
+		return brightness;
+	}
+
+	/**
+	 * Retourne le gamma.
+	 * @return le gamma.
+	 */
+	public double gamma() {
+		return gamma;
+	}
+
+	/**
+	 * Retourne la vibrance.
+	 * @return la vibrance, entre 0 et 1.
+	 */
+	public double vibrancy() {
+		return vibrancy;
+	}
+
+	/**
+	 * Retourne l'intensite d'une case contenant <code>hits</code> points, dans un accumulateur dont la case la plus remplie en contient <code>maxPoints</code>.
+	 * @param hits le nombre de points de la case.
+	 * @param maxPoints le nombre de points de la case la plus remplie.
+	 * @return l'intensite de la case, entre 0 et 1.
+	 */
+	public double intensity(int hits, int maxPoints) {
+		if(hits == 0)
+			return 0;
+		return applyGamma(linearIntensity(hits, maxPoints));
+	}
+
+	/**
+	 * Retourne l'intensite avant correction gamma : l'intensite de base multipliee par la luminosite, limitee a 1.
+	 */
+	double linearIntensity(int hits, int maxPoints) {
+		if(hits == 0)
+			return 0;
+		double base = log(hits)/log(maxPoints);
+		return brightness == 1 ? base : Math.min(1, brightness*base);
+	}
+
+	/**
+	 * Applique la correction gamma a une intensite ou a une composante de couleur.
+	 */
+	double applyGamma(double v) {
+		return gamma == 1 ? v : Math.pow(v, 1/gamma);
+	}
+
+	/**
+	 * Indique si la correction gamma doit aussi etre appliquee a chaque composante de couleur,
+	 * c-a-d si la vibrance est inferieure a 1 et le gamma different de 1.
+	 */
+	boolean correctsComponents() {
+		return vibrancy < 1 && gamma != 1;
+	}
+
+	/**
+	 * Retourne la table des intensites, indexee par le nombre de points, pour un accumulateur dont la case la plus remplie contient <code>maxPoints</code> points. <br />
+	 * La table s'arrete a <code>maxPoints</code>, ou a <code>{@value #TABLE_LIMIT}</code> points : au-dela, il faut utiliser <code>{@link ToneMap#intensity(int, int)}</code>. <br />
+	 * La table est calculee a chaque appel : c'est a l'accumulateur de la garder.
+	 */
+	double[] intensityTable(int maxPoints) {
+		double[] intensities = new double[Math.min(maxPoints, TABLE_LIMIT - 1) + 1];
+		for(int h=0; h<intensities.length; h++) {
+			intensities[h] = intensity(h, maxPoints);
+		}
+		return intensities;
+	}
+
+	/**
+	 * Retourne <code>log(hits+1)</code>, lu dans la table commune, qui est agrandie si necessaire.
+	 */
+	private static double log(int hits) {
+		double[] table = logTable;
+		if(hits < table.length)
+			return table[hits];
+		if(hits >= TABLE_LIMIT)
+			return Math.log(hits + 1);
+		return extendLogTable(hits)[hits];
+	}
+
+	/**
+	 * Agrandit la table des logarithmes pour qu'elle contienne au moins l'entree <code>hits</code>, en doublant sa taille.
+	 */
+	private static synchronized double[] extendLogTable(int hits) {
+		double[] table = logTable;
+		if(hits < table.length)
+			return table;
+		int size = table.length;
+		while(size <= hits) {
+			size = Math.min(2*size, TABLE_LIMIT);
+		}
+		double[] extended = new double[size];
+		System.arraycopy(table, 0, extended, 0, table.length);
+		for(int h=table.length; h<size; h++) {
+			extended[h] = Math.log(h + 1);
+		}
+		logTable = extended;
+		return extended;
+	}
+
+	@Override
+	public String toString() {
+		return "ToneMap [brightness=" + brightness + ", gamma=" + gamma + ", vibrancy=" + vibrancy + "]";
+	}
+}
@@ -0,0 +1,75 @@
+package ch.epfl.flamemaker.flame;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import ch.epfl.flamemaker.color.Color;
+import ch.epfl.flamemaker.color.InterpolatedPalette;
+import ch.epfl.flamemaker.color.PaletteTable;
+import ch.epfl.flamemaker.geometry2d.Point;
+import ch.epfl.flamemaker.geometry2d.Rectangle;
+
+public class ToneMapTest {
+	@Test
+	public void testDefaultIsLogDensity() {
+		for(int max : new int[] { 1, 7, 1000, ToneMap.TABLE_LIMIT + 5 }) {
+			for(int hits : new int[] { 1, max/2 + 1, max }) {
+				assertEquals(Math.log(hits + 1)/Math.log(max + 1), ToneMap.DEFAULT.intensity(hits, max), 0);
+			}
+			assertEquals(0, ToneMap.DEFAULT.intensity(0, max), 0);
+		}
+	}
+	
+	@Test
+	public void testBrightnessAndGamma() {
+		ToneMap bright = new ToneMap(4, 1, 1);
+		assertEquals(1, bright.intensity(100, 100), 0);
+		assertEquals(4*Math.log(3)/Math.log(101), bright.intensity(2, 100), 1e-15);
+		assertEquals(1, bright.intensity(50, 100), 0);
+		ToneMap gamma = new ToneMap(1, 2, 1);
+		assertEquals(Math.sqrt(Math.log(3)/Math.log(101)), gamma.intensity(2, 100), 1e-15);
+	}
+	
+	@Test
+	public void testColorizeWithToneMap() {
+		FlameAccumulator acc = FlameTest.newShark().compute(new Rectangle(new Point(-0.25, 0.0), 5, 4), 60, 40, 10);
+		PaletteTable table = InterpolatedPalette.generateRGBPal().bake(PaletteTable.DEFAULT_SIZE);
+		int[] expected = new int[60*40], actual = new int[60*40];
+		acc.colorize(table, Color.BLACK, expected);
+		acc.colorize(new ToneMap(1, 1, 0.5), table, Color.BLACK, actual);
+		assertArrayEquals(expected, actual);
+		
+		// Avec un gamma de 2, chaque case est au moins aussi claire qu'avec le mappage par defaut
+		acc.colorize(new ToneMap(1, 2, 0), table, Color.BLACK, actual);
+		for(int i=0; i<actual.length; i++) {
+			for(int shift=0; shift<24; shift+=8) {
+				assertTrue(((actual[i] >> shift) & 0xFF) >= ((expected[i] >> shift) & 0xFF));
+			}
+		}
+	}
+	
+	@Test
+	public void testAlternatingAccumulatorsKeepTheirOwnIntensities() {
+		ToneMap toneMap = new ToneMap(1.5, 2, 0.5);
+		PaletteTable table = InterpolatedPalette.generateRGBPal().bake(PaletteTable.DEFAULT_SIZE);
+		FlameAccumulator dense = FlameTest.newShark().compute(new Rectangle(new Point(-0.25, 0.0), 5, 4), 60, 40, 10);
+		FlameAccumulator sparse = FlameTest.newShark().compute(new Rectangle(new Point(-0.25, 0.0), 5, 4), 60, 40, 1);
+		int[] first = new int[60*40], other = new int[60*40], again = new int[60*40];
+		dense.colorize(toneMap, table, Color.BLACK, first);
+		sparse.colorize(toneMap, table, Color.BLACK, other);
+		dense.colorize(toneMap, table, Color.BLACK, again);
+		assertArrayEquals(first, again);
+		// Chaque accumulateur garde la table de son propre maximum : le resultat est celui d'un mappage neuf
+		int[] fresh = new int[60*40];
+		sparse.colorize(new ToneMap(1.5, 2, 0.5), table, Color.BLACK, fresh);
+		assertArrayEquals(fresh, other);
+		sparse.colorize(toneMap, table, Color.BLACK, again);
+		assertArrayEquals(other, again);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsInvalidVibrancy() {
+		new ToneMap(1, 1, 1.5);
+	}
+}
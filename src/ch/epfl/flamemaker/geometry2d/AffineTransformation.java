@@ -98,6 +98,14 @@ public final class AffineTransformation implements Transformation, Serializable
 		return new Point((a*p.x() + b*p.y() + c), (d*p.x() + e*p.y() + f));
 	}
 	
+	/**
+	 * Retourne les six coefficients <code>a, b, c, d, e, f</code> de la matrice de transformation, dans cet ordre.
+	 * @return un nouveau tableau contenant les coefficients de la transformation.
+	 */
+	public double[] coefficients() {
+		return new double[] { a, b, c, d, e, f };
+	}
+	
 	/**
 	 * Retourne la composante horizontale de la translation
 	 * @return la composante horizontale de la translation
@@ -2,14 +2,24 @@ package ch.epfl.flamemaker.gui;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.*;
 
 import ch.epfl.flamemaker.geometry2d.Rectangle;
+import ch.epfl.flamemaker.flame.Flame;
 import ch.epfl.flamemaker.flame.FlameAccumulator;
+import ch.epfl.flamemaker.flame.FlameRenderSession;
 import ch.epfl.flamemaker.flame.ObservableFlameBuilder;
+import ch.epfl.flamemaker.flame.RenderCache;
+import ch.epfl.flamemaker.flame.ToneMap;
 import ch.epfl.flamemaker.color.Color;
 import ch.epfl.flamemaker.color.Palette;
+import ch.epfl.flamemaker.color.PaletteTable;
 /**
  * <p>La classe FlameBuilderPreviewComponent modŽlise le composant permettant d'afficher la fractale en cours d'Ždition.</p>
  *<p> Elle possŽde des champs privŽes necessaires au dessin de la fractale : flameBuilder, la couleur de fond, la palette, le cadre du dessin et la densite.</p> 
@@ -23,11 +33,53 @@ import ch.epfl.flamemaker.color.Palette;
  */
 @SuppressWarnings("serial")
 public class FlameBuilderPreviewComponent extends JComponent {
+	// Les accumulateurs termines, partages par tous les apercus : redessiner sans modification ne rejoue pas le jeu du chaos
+	private static final RenderCache RENDER_CACHE = new RenderCache(RenderCache.DEFAULT_MEMORY_BUDGET);
+	// Le nombre de points ajoutes entre deux verifications de l'annulation, de l'heure et de la prochaine image
+	private static final int REFINE_STEP = 4*FlameRenderSession.SLICE_SIZE;
+	// L'intervalle minimal entre deux images intermediaires, en millisecondes
+	private static final long REFRESH_INTERVAL = 100;
+	// La duree maximale d'un calcul progressif, en millisecondes : au-dela, la derniere image reste affichee
+	private static final long REFINE_BUDGET = 10000;
+	// Les images sont calculees sur un seul fil, en dehors du fil de Swing
+	private static final ExecutorService RENDERER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "FlameBuilderPreviewComponent");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
 	private ObservableFlameBuilder flameBuilder;
 	private Color backgroundColor;
 	private Palette palette;
 	private Rectangle frame;
 	private int density;
+	// Les reglages de couleur actuels, lus aussi par le fil de calcul a chaque image publiee
+	private volatile Coloring coloring;
+	
+	// Etat du rendu, lu et modifie uniquement par le fil de Swing
+	private BufferedImage image;
+	// Le dernier accumulateur publie : tant que la fractale, le cadre, la densite et la taille ne changent pas, un changement de couleurs ne fait que le recolorier
+	private FlameAccumulator accumulator;
+	// Le message affiche a la place de l'image si le dernier calcul lance a echoue, null sinon
+	private String error;
+	// Les donnees du dernier calcul lance
+	private ObservableFlameBuilder renderedBuilder;
+	private long renderedVersion;
+	private Rectangle renderedFrame;
+	private int renderedDensity;
+	private int requestedWidth, requestedHeight;
+	private int generation;
+	private Future<?> job;
+	private final ObservableFlameBuilder.Observer builderObserver = new ObservableFlameBuilder.Observer() {
+		@Override
+		public void update() {
+			// Un avertissement differe peut arriver apres un calcul qui a deja pris la modification en compte
+			if(flameBuilder.version() != renderedVersion)
+				repaint();
+		}
+	};
 	/**
 	 * Le constructeur initialise tout les attributs necessaires au dessin de la fractale. 
 	 * @param flameBuilder
@@ -42,17 +94,78 @@ public class FlameBuilderPreviewComponent extends JComponent {
 		this.palette = palette;
 		this.frame = frame;
 		this.density = density;
+		this.coloring = new Coloring(ToneMap.DEFAULT, palette.bake(PaletteTable.DEFAULT_SIZE), backgroundColor);
+		flameBuilder.addObserver(builderObserver);
 	}
 
+	/**
+	 * Change la fractale affichee et ses reglages. <br />
+	 * Si seules la palette et la couleur de fond changent, la derniere image est simplement recoloriee, sans relancer le jeu du chaos.
+	 * @param flameBuilder le batisseur de la fractale.
+	 * @param backgroundColor la couleur de fond.
+	 * @param palette la palette.
+	 * @param frame le cadre du dessin.
+	 * @param density la densite.
+	 */
 	public void setNewFlame(ObservableFlameBuilder flameBuilder, Color backgroundColor, Palette palette, Rectangle frame, int density) {
+		this.flameBuilder.removeObserver(builderObserver);
+		flameBuilder.addObserver(builderObserver);
 		this.flameBuilder = flameBuilder;
-		this.backgroundColor = backgroundColor;
-		this.palette = palette;
 		this.frame = frame;
 		this.density = density;
+		if(palette != this.palette || backgroundColor != this.backgroundColor) {
+			this.palette = palette;
+			this.backgroundColor = backgroundColor;
+			setColoring(new Coloring(coloring.toneMap, palette.bake(PaletteTable.DEFAULT_SIZE), backgroundColor));
+		}
+		repaint();
+	}
+	
+	/**
+	 * Change la palette, en recoloriant la derniere image sans relancer le jeu du chaos.
+	 * @param palette la nouvelle palette.
+	 */
+	public void setPalette(Palette palette) {
+		this.palette = palette;
+		setColoring(new Coloring(coloring.toneMap, palette.bake(PaletteTable.DEFAULT_SIZE), backgroundColor));
+	}
+	
+	/**
+	 * Change la couleur de fond, en recoloriant la derniere image sans relancer le jeu du chaos.
+	 * @param backgroundColor la nouvelle couleur de fond.
+	 */
+	public void setBackgroundColor(Color backgroundColor) {
+		this.backgroundColor = backgroundColor;
+		setColoring(new Coloring(coloring.toneMap, coloring.table, backgroundColor));
+	}
+	
+	/**
+	 * Change le mappage des nombres de points en intensites (<code>{@link ToneMap#DEFAULT}</code> par defaut), en recoloriant la derniere image sans relancer le jeu du chaos.
+	 * @param toneMap le nouveau mappage.
+	 */
+	public void setToneMap(ToneMap toneMap) {
+		setColoring(new Coloring(toneMap, coloring.table, backgroundColor));
+	}
+	
+	/**
+	 * Change les reglages de couleur. Si le dernier accumulateur correspond toujours a la fractale affichee, il est recolorie tout de suite, sur le fil de Swing ; 
+	 * un calcul en cours utilise les nouveaux reglages des sa prochaine image.
+	 */
+	private void setColoring(Coloring newColoring) {
+		coloring = newColoring;
+		if(accumulator != null && !needsRender(getWidth(), getHeight()))
+			image = newColoring.render(accumulator);
 		repaint();
 	}
 	
+	/**
+	 * Indique si la fractale, son cadre, sa densite ou la taille de l'image ont change depuis le dernier calcul lance.
+	 */
+	private boolean needsRender(int width, int height) {
+		return flameBuilder != renderedBuilder || flameBuilder.version() != renderedVersion || frame != renderedFrame || density != renderedDensity 
+				|| width != requestedWidth || height != requestedHeight;
+	}
+	
 	/**
 	 * retourne la dimension idŽale pour le composant.
 	 */
@@ -61,23 +174,171 @@ public class FlameBuilderPreviewComponent extends JComponent {
 		return new Dimension(200, 150);
 	}
 	/**
-	 *  est appelŽe par Swing chaque fois que le composant doit �tre redessinŽ, p.ex. suite ˆ un redimensionnement.
-	 *  Le dessin de la fractale se fait dans cette mŽthode, il faut produire une image qu'on affiche ensuite dans le composant.
-	 *  
+	 * Est appelee par Swing chaque fois que le composant doit etre redessine, p.ex. suite a un redimensionnement. <br />
+	 * Elle ne fait qu'afficher la derniere image terminee (mise a l'echelle si la taille du composant a change depuis), 
+	 * et demande une nouvelle image si la fractale, son cadre, sa densite ou la taille du composant ont change. 
+	 * Un changement de couleurs seul ne relance pas le calcul : la derniere image a deja ete recoloriee.
+	 * @see FlameBuilderPreviewComponent#render(int, int)
 	 */
 	@Override
 	public void paintComponent(Graphics g0) {
-		//notifyObservers(true);
 		Graphics2D g = (Graphics2D) g0;
-		BufferedImage fractal = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
-		double componentAspectRatio = (double) getWidth()/ (double) getHeight();
-		FlameAccumulator acc = flameBuilder.build().compute(frame.expandToAspectRatio(componentAspectRatio), getWidth(), getHeight(), density);
-		for(int i=0; i<acc.height(); i++) {
-			for(int j=0; j<acc.width(); j++) {
-				Color c = acc.color(palette, backgroundColor, j, i);
-				fractal.setRGB(j, i, c.asPackedRGB());
+		int width = getWidth(), height = getHeight();
+		if(width <= 0 || height <= 0)
+			return;
+		if(needsRender(width, height))
+			render(width, height);
+		if(image != null) {
+			g.drawImage(image, 0, 0, width, height, null);
+		}
+		else {
+			g.setColor(new java.awt.Color(coloring.background.asPackedRGB()));
+			g.fillRect(0, 0, width, height);
+		}
+		if(error != null) {
+			FontMetrics metrics = g.getFontMetrics();
+			g.setColor(java.awt.Color.RED);
+			g.drawString(error, Math.max(0, (width - metrics.stringWidth(error))/2), (height + metrics.getAscent())/2);
+		}
+	}
+	
+	/**
+	 * <p>Lance le calcul progressif de l'image de la fractale, dans sa version actuelle, sur le fil de calcul des apercus. <br />
+	 * Le calcul precedent, devenu inutile, est annule : s'il n'a pas commence, il ne commencera jamais ; sinon, il s'arrete au pas suivant.</p>
+	 * <p>Si l'accumulateur final est deja dans le cache, il est affiche tout de suite. Sinon, une <code>{@link FlameRenderSession}</code> ajoute les points
+	 * par pas de <code>{@value #REFINE_STEP}</code> : une premiere image grossiere est publiee apres le premier pas, puis une image plus fine
+	 * au plus toutes les <code>{@value #REFRESH_INTERVAL}</code> ms, jusqu'a la densite demandee ou, au plus tard, apres <code>{@value #REFINE_BUDGET}</code> ms. <br />
+	 * Arrive a la densite demandee, l'accumulateur est exactement celui de <code>{@link Flame#compute(Rectangle, int, int, int) compute()}</code> et rejoint le cache.</p>
+	 * <p>Chaque image est transmise au fil de Swing, qui ne la garde que si aucun autre calcul n'a ete lance entre-temps, et redessine le composant. 
+	 * Si le calcul echoue (p.ex. une fractale sans transformation), le composant affiche un message d'erreur a la place de l'image.</p>
+	 * @param width la largeur de l'image.
+	 * @param height la hauteur de l'image.
+	 */
+	private void render(final int width, final int height) {
+		renderedBuilder = flameBuilder;
+		renderedVersion = flameBuilder.version();
+		renderedFrame = frame;
+		renderedDensity = density;
+		requestedWidth = width;
+		requestedHeight = height;
+		final int renderGeneration = ++generation;
+		// La fractale est construite ici, sur le fil de Swing, qui est le seul a modifier le batisseur
+		final Flame flame = flameBuilder.build();
+		final Rectangle renderFrame = frame.expandToAspectRatio((double) width/(double) height);
+		final int renderDensity = density;
+		if(job != null)
+			job.cancel(true);
+		job = RENDERER.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refine(flame, renderFrame, width, height, renderDensity, renderGeneration);
+				} catch(RuntimeException e) {
+					// L'annulation ne passe pas par ici : refine() s'arrete simplement quand le fil est interrompu
+					fail(e, renderGeneration);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Calcule l'image de la fractale sur le fil de calcul, en publiant les images intermediaires. 
+	 * Retourne sans rien publier de plus des que le fil est interrompu, c'est-a-dire des que le calcul est annule.
+	 * @see FlameBuilderPreviewComponent#render(int, int)
+	 */
+	private void refine(Flame flame, Rectangle renderFrame, int width, int height, int renderDensity, int renderGeneration) {
+		FlameAccumulator acc = RENDER_CACHE.cached(flame, renderFrame, width, height, renderDensity);
+		if(acc != null) {
+			publish(acc, renderGeneration);
+			return;
+		}
+		FlameRenderSession session = new FlameRenderSession(flame, renderFrame, width, height);
+		// Le nombre de points de compute(), pour que l'accumulateur final puisse etre mis en cache
+		long target = (long) renderDensity*width*height - 1;
+		long start = System.nanoTime(), published = 0;
+		boolean first = true;
+		while(session.iterationCount() < target) {
+			if(Thread.currentThread().isInterrupted())
+				return;
+			session.iterate(Math.min(REFINE_STEP, target - session.iterationCount()));
+			long now = System.nanoTime();
+			if(now - start >= REFINE_BUDGET*1000000L)
+				break;
+			if(first || now - published >= REFRESH_INTERVAL*1000000L) {
+				publish(session.snapshot(), renderGeneration);
+				published = now;
+				first = false;
+			}
+		}
+		if(Thread.currentThread().isInterrupted())
+			return;
+		acc = session.snapshot();
+		if(session.iterationCount() >= target)
+			RENDER_CACHE.put(flame, renderFrame, width, height, renderDensity, acc);
+		publish(acc, renderGeneration);
+	}
+	
+	/**
+	 * Colore l'accumulateur donne sur le fil de calcul, avec les reglages de couleur actuels, puis transmet l'accumulateur et l'image au fil de Swing, 
+	 * qui ne les garde que si le calcul <code>renderGeneration</code> est toujours le dernier lance. 
+	 * Si les reglages ont change entre-temps, l'image est recoloriee sur le fil de Swing.
+	 */
+	private void publish(final FlameAccumulator acc, final int renderGeneration) {
+		final Coloring used = coloring;
+		final BufferedImage rendered = used.render(acc);
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if(renderGeneration == generation) {
+					accumulator = acc;
+					error = null;
+					image = used == coloring ? rendered : coloring.render(acc);
+					repaint();
+				}
 			}
+		});
+	}
+	
+	/**
+	 * Transmet l'echec du calcul <code>renderGeneration</code> au fil de Swing, qui n'affiche le message d'erreur que si ce calcul est toujours le dernier lance : 
+	 * l'image precedente, qui montrait une autre version de la fractale, est alors effacee.
+	 */
+	private void fail(RuntimeException e, final int renderGeneration) {
+		final String message = "Apercu impossible : " + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if(renderGeneration == generation) {
+					accumulator = null;
+					image = null;
+					error = message;
+					repaint();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Les reglages de couleur d'une image : ils ne changent pas l'accumulateur, seulement la facon de le colorier.
+	 */
+	private static final class Coloring {
+		final ToneMap toneMap;
+		final PaletteTable table;
+		final Color background;
+		
+		Coloring(ToneMap toneMap, PaletteTable table, Color background) {
+			this.toneMap = toneMap;
+			this.table = table;
+			this.background = background;
+		}
+		
+		/**
+		 * Retourne une nouvelle image de l'accumulateur donne, coloriee avec ces reglages.
+		 */
+		BufferedImage render(FlameAccumulator acc) {
+			BufferedImage rendered = new BufferedImage(acc.width(), acc.height(), BufferedImage.TYPE_INT_RGB);
+			acc.colorize(toneMap, table, background, ((DataBufferInt) rendered.getRaster().getDataBuffer()).getData());
+			return rendered;
 		}
-		g.drawImage(fractal, 0, 0, null);
 	}
 }
@@ -1,18 +1,16 @@
 package ch.epfl.flamemaker.gui;
 
 import java.awt.BorderLayout;
+import java.awt.Component;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -36,6 +34,7 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
 import javax.swing.JTextField;
+import javax.swing.Timer;
 import javax.swing.ListSelectionModel;
 import javax.swing.LayoutStyle.ComponentPlacement;
 import javax.swing.UIManager;
@@ -46,15 +45,16 @@ import javax.swing.event.ListSelectionListener;
 
 import ch.epfl.flamemaker.color.Color;
 import ch.epfl.flamemaker.color.InterpolatedPalette;
+import ch.epfl.flamemaker.flame.FlameDocument;
+import ch.epfl.flamemaker.flame.FlameLibrary;
+import ch.epfl.flamemaker.flame.FlameLibrarySaver;
 import ch.epfl.flamemaker.flame.FlameTransformation;
 import ch.epfl.flamemaker.flame.ObservableFlameBuilder;
-import ch.epfl.flamemaker.flame.PresetFlame;
-import ch.epfl.flamemaker.flame.StorableFlame;
 import ch.epfl.flamemaker.flame.Variation;
-import ch.epfl.flamemaker.flame.PresetFlame.TransfoListObserver;
 import ch.epfl.flamemaker.geometry2d.AffineTransformation;
 import ch.epfl.flamemaker.geometry2d.Point;
 import ch.epfl.flamemaker.geometry2d.Rectangle;
+import ch.epfl.flamemaker.gui.PresetFlame.TransfoListObserver;
 
 public class FlameMakerGUI {
 	private final Set<FlameListObserver> observers;
@@ -66,13 +66,21 @@ public class FlameMakerGUI {
 	private final JScrollPane scrollFlamePanel; 
 
 	// selectedFlameIndex observable
-	private List<PresetFlame> flameList;
+	private LibraryFlameList flameList;
 	private JList<String> listFlamesJList;
 	private PresetFlame flame;
 	private int selectedFlameIndex;
 	
 	// Densité d'image
-	private final int DENSITY = 15;
+	// (atteinte progressivement par l'apercu, qui affiche d'abord une image grossiere)
+	private final int DENSITY = 40;
+	
+	// Enregistrement automatique, une seconde apres la derniere modification
+	private static final int AUTOSAVE_DELAY = 1000;
+	private final FlameLibrarySaver saver = new FlameLibrarySaver(new File("flamelist.sav"));
+	private final Timer autosaveTimer;
+	// Vrai lorsque la liste vient de flamelist.sav ou y a ete enregistree : la liste par defaut n'ecrase jamais le fichier
+	private boolean autosave;
 	
 	public FlameMakerGUI() {
 		observers = new HashSet<FlameListObserver>();
@@ -85,6 +93,15 @@ public class FlameMakerGUI {
 		variationsFields = new JFormattedTextField[Variation.ALL_VARIATIONS.size()];
 		scrollTransfoPanel = new JScrollPane(flame.getListTransfos());
 		scrollFlamePanel = new JScrollPane();
+		
+		autosaveTimer = new Timer(AUTOSAVE_DELAY, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if(autosave && canSaveFlameList())
+					saver.save(flameList.snapshot());
+			}
+		});
+		autosaveTimer.setRepeats(false);
 	}
 
 	public void addObserver(FlameListObserver o) {
@@ -106,6 +123,21 @@ public class FlameMakerGUI {
 			throw new IllegalArgumentException("La Flame selectionnee n'existe pas ! (Invalid index)");
 	}
 	
+	private final LibraryFlameList.LoadObserver flameLoader = new LibraryFlameList.LoadObserver() {
+		@Override
+		public void loaded(PresetFlame f) {
+			addFlameObservers(f);
+		}
+
+		@Override
+		public void failed(String name, IOException e) {
+			JOptionPane.showMessageDialog(null, 
+					"La fractale \"" + name + "\" n'a pas pu etre lue (" + e.getMessage() + ").\n"
+					+ "Une fractale vide est affichee a sa place. Pour ne pas perdre l'originale, la liste ne sera plus enregistree tant qu'elle n'aura pas ete supprimee.", 
+					"Fractale illisible", JOptionPane.ERROR_MESSAGE);
+		}
+	};
+	
 	private void addFlameObservers(PresetFlame f) {
 		f.addObserver(new TransfoListObserver() {
 			@Override
@@ -120,104 +152,105 @@ public class FlameMakerGUI {
 			public void update() {
 				affineTransfoComponent.repaint();
 				fractalPreviewComponent.repaint();
+				flameListChanged();
 			}
 		});
 	}
 	
-	private List<PresetFlame> readFlameList(String path) {
+	/**
+	 * Relance le delai d'enregistrement automatique apres une modification de la liste ou d'une fractale.
+	 */
+	private void flameListChanged() {
+		if(autosave)
+			autosaveTimer.restart();
+	}
+	
+	private LibraryFlameList readFlameList(String path) {
 		File f = new File(path);
 		if(f.isFile() && f.canRead()) {
-			FileInputStream input = null;
-			ObjectInputStream restore = null;
-			List<PresetFlame> restoreFlameList = new ArrayList<PresetFlame>();
 			try {
-				input = new FileInputStream(f);
-				restore = new ObjectInputStream(input);
-				//System.out.println(input.available());
-				if(input.available() == 0)
-					throw new UnsupportedOperationException("Le fichier est vide !");
-				while(input.available() > 0) {
-					PresetFlame flame = ((StorableFlame) restore.readObject()).restoreFlame();
-					restoreFlameList.add(flame);
-				}
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
+				// Seul l'index est lu : les fractales sont construites lorsqu'elles sont selectionnees
+				LibraryFlameList list = new LibraryFlameList(FlameLibrary.open(f), flameLoader);
+				autosave = true;
+				return list;
 			} catch (IOException e) {
 				e.printStackTrace();
-			} catch (ClassNotFoundException e) {
-				e.printStackTrace();
 			}
-			finally {
-				try {
-					restore.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-			return restoreFlameList;
 		}
 		// TODO POPUP pour indiquer que le fichier n'existe pas/n'est pas lisible
 		return flameList;
 	}
 	
-	private List<PresetFlame> openFlameList() {
+	private LibraryFlameList openFlameList() {
 		return readFlameList("flamelist.sav");
 	}
 	
-	private void saveFlameList() {
-		File file = new File("flamelist.sav");
-		ObjectOutputStream save = null;
-		FileOutputStream output = null;
+	/**
+	 * Indique si la liste peut etre enregistree : pas tant qu'elle contient une fractale illisible, dont l'enregistrement d'origine serait perdu.
+	 */
+	private boolean canSaveFlameList() {
+		return flameList.unreadableCount() == 0;
+	}
+	
+	private void saveFlameList(Component parent) {
+		if(!canSaveFlameList()) {
+			JOptionPane.showMessageDialog(parent, 
+					"La liste contient " + flameList.unreadableCount() + " fractale(s) illisible(s) : supprimez-les avant d'enregistrer, pour ne pas ecraser leur enregistrement d'origine.", 
+					"Enregistrement impossible", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		// L'ecriture se fait en arriere-plan, dans un fichier temporaire renomme ensuite en flamelist.sav
+		autosaveTimer.stop();
+		saver.save(flameList.snapshot());
+		autosave = true;
+	}
+	
+	/**
+	 * Ecrit la derniere liste demandee avant la fermeture, et previent l'utilisateur si cette ecriture a echoue.
+	 * @param parent la fenetre qui se ferme.
+	 */
+	private void closeFlameList(Component parent) {
+		if(autosaveTimer.isRunning()) {
+			autosaveTimer.stop();
+			if(canSaveFlameList())
+				saver.save(flameList.snapshot());
+		}
 		try {
-			output = new FileOutputStream(file);
-			save = new ObjectOutputStream(output);
-			for(PresetFlame flame : flameList) {
-				StorableFlame sFlame = new StorableFlame(flame);
-				save.writeObject(sFlame);
-			}
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			saver.close();
 		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		finally {
-			try {
-				save.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+			JOptionPane.showMessageDialog(parent, 
+					"Le dernier enregistrement de " + saver.file() + " a echoue (" + e.getMessage() + ").\n"
+					+ "Les dernieres modifications de la liste sont perdues ; le fichier garde son contenu precedent.", 
+					"Enregistrement impossible", JOptionPane.ERROR_MESSAGE);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 	
-	private List<PresetFlame> generatePresetFlames(boolean defaultList) {
-		List<PresetFlame> definedFlames = new ArrayList<PresetFlame>();
+	private LibraryFlameList generatePresetFlames(boolean defaultList) {
 		if(defaultList) {
 			// Shark
 			ArrayList<FlameTransformation> sharkTransfos = new ArrayList<FlameTransformation>();
 			sharkTransfos.add(new FlameTransformation(new AffineTransformation(-0.4113504, -0.7124804, -0.4, 0.7124795, -0.4113508, 0.8), new double[] { 1, 0.1, 0, 0, 0, 0 }));
 			sharkTransfos.add(new FlameTransformation(new AffineTransformation(-0.3957339, 0, -1.6, 0, -0.3957337, 0.2), new double[] { 0, 0, 0, 0, 0.8, 1 }));
 			sharkTransfos.add(new FlameTransformation(new AffineTransformation(0.4810169, 0, 1, 0, 0.4810169, 0.9), new double[] { 1, 0, 0, 0, 0, 0 }));
-			PresetFlame shark = new PresetFlame("Shark", sharkTransfos, new Rectangle(new Point(-0.25, 0.0), 5, 4), InterpolatedPalette.generateRGBPal());
+			FlameDocument shark = new FlameDocument("Shark", sharkTransfos, new Rectangle(new Point(-0.25, 0.0), 5, 4), InterpolatedPalette.generateRGBPal());
 	
 			// Turbulence
 			ArrayList<FlameTransformation> turbulenceTransfos = new ArrayList<FlameTransformation>();
 			turbulenceTransfos.add(new FlameTransformation(new AffineTransformation(0.712487, -0.4113509, -0.3, 0.4113513, 0.7124808, -0.7), new double[] { 0.5, 0, 0, 0.4, 0, 0 }));
 			turbulenceTransfos.add(new FlameTransformation(new AffineTransformation(0.3731079, -0.6462417, 0.4, 0.6462414, 0.3731076, 0.3), new double[] { 1, 0, 0.1, 0, 0, 0 }));
 			turbulenceTransfos.add(new FlameTransformation(new AffineTransformation(0.0842641, -0.314478, -0.1, 0.314478, 0.0842641, 0.3), new double[] { 1, 0, 0, 0, 0, 0 }));
-			PresetFlame turbulence = new PresetFlame("Turbulence", turbulenceTransfos, new Rectangle(new Point(0.1, 0.1), 3, 3), InterpolatedPalette.generateRGBPal());
+			FlameDocument turbulence = new FlameDocument("Turbulence", turbulenceTransfos, new Rectangle(new Point(0.1, 0.1), 3, 3), InterpolatedPalette.generateRGBPal());
 			
+			List<FlameDocument> definedFlames = new ArrayList<FlameDocument>();
 			definedFlames.add(shark);
 			definedFlames.add(turbulence);
+			return new LibraryFlameList(FlameLibrary.of(definedFlames), flameLoader);
 		} 
 		else {
-			definedFlames = openFlameList();
-		}
-		
-		for(int i=0; i<definedFlames.size(); i++) {
-			addFlameObservers(definedFlames.get(i));
+			return openFlameList();
 		}
-		
-		return definedFlames;
 	}
 	
 	private void setCurrentFlame(int index) {
@@ -228,9 +261,17 @@ public class FlameMakerGUI {
 	}
 
 	private void setVariationWeights() {
-		for(int i=0; i<variationsFields.length; i++) {
-			double variationWeight = flame.getObservableFlameBuilder().variationWeight(flame.getSelectedTransformationIndex(), Variation.ALL_VARIATIONS.get(i));
-			variationsFields[i].setValue(variationWeight);
+		// Les champs renvoient leur valeur au batisseur : une seule modification pour tous les poids
+		ObservableFlameBuilder builder = flame.getObservableFlameBuilder();
+		builder.beginEdit();
+		try {
+			for(int i=0; i<variationsFields.length; i++) {
+				double variationWeight = builder.variationWeight(flame.getSelectedTransformationIndex(), Variation.ALL_VARIATIONS.get(i));
+				variationsFields[i].setValue(variationWeight);
+			}
+		}
+		finally {
+			builder.commitEdit();
 		}
 	}
 
@@ -244,7 +285,14 @@ public class FlameMakerGUI {
 			@Override
 			public void actionPerformed(ActionEvent e) {
 				double value = ((Number) textField.getValue()).doubleValue();
-				modifier.addEffect(value);
+				ObservableFlameBuilder builder = flame.getObservableFlameBuilder();
+				builder.beginEdit();
+				try {
+					modifier.addEffect(value);
+				}
+				finally {
+					builder.commitEdit();
+				}
 			}
 		});
 	}
@@ -257,6 +305,12 @@ public class FlameMakerGUI {
 		// Creation du GUI
 		final JFrame mainFrame = new JFrame("Flame Maker GUI");
 		mainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		mainFrame.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				closeFlameList(e.getWindow());
+			}
+		});
 	
 		mainFrame.getContentPane().setLayout(new BorderLayout());
 
@@ -359,7 +413,7 @@ public class FlameMakerGUI {
 		saveButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				saveFlameList();
+				saveFlameList((Component) e.getSource());
 			}
 		});
 		
@@ -367,6 +421,8 @@ public class FlameMakerGUI {
 		resetButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
+				autosaveTimer.stop();
+				autosave = false;
 				flameList = generatePresetFlames(true);
 				setCurrentFlame(0);
 				setNewFlamesJList();
@@ -400,7 +456,7 @@ public class FlameMakerGUI {
 		addObserver(new FlameListObserver() {
 			@Override
 			public void update() {
-				fractalPreviewComponent.setNewFlame(flame.getObservableFlameBuilder(), Color.BLACK, flame.getPalette(), flame.getFrame(), 15);
+				fractalPreviewComponent.setNewFlame(flame.getObservableFlameBuilder(), Color.BLACK, flame.getPalette(), flame.getFrame(), DENSITY);
 				affineTransfoComponent.setNewFlame(flame.getObservableFlameBuilder(), flame.getFrame(), flame.getSelectedTransformationIndex());
 				scrollTransfoPanel.setViewportView(flame.getListTransfos());
 				setVariationWeights();
@@ -880,6 +936,7 @@ public class FlameMakerGUI {
 		public void addFlame(PresetFlame f) {
 			addFlameObservers(f);
 			flameList.add(f);
+			flameListChanged();
 			setCurrentFlame(getSize() - 1);
 			fireIntervalAdded(this, getSize(), getSize());
 		}
@@ -887,6 +944,7 @@ public class FlameMakerGUI {
 		public void removeFlame(int index) {
 			checkIndexFlame(index);
 			flameList.remove(index);
+			flameListChanged();
 			fireIntervalRemoved(this, index, index);
 		}
 
@@ -894,13 +952,14 @@ public class FlameMakerGUI {
 			checkIndexFlame(index);
 			PresetFlame f = flameList.get(index);
 			f.setName(newName);
+			flameListChanged();
 			fireIntervalAdded(this, getSize(), getSize());
 		}
 
 		@Override
 		public String getElementAt(int index) {
 			checkIndexFlame(index);
-			return flameList.get(index).getName();
+			return flameList.name(index);
 		}
 
 		@Override
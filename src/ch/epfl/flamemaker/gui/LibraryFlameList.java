@@ -0,0 +1,190 @@
+package ch.epfl.flamemaker.gui;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.epfl.flamemaker.flame.FlameDocument;
+import ch.epfl.flamemaker.flame.FlameLibrary;
+
+/**
+ * <p>La classe <code>LibraryFlameList</code> est la liste des fractales de l'interface graphique, construite sur une <code>{@link FlameLibrary}</code>.</p>
+ * <p>Une fractale de la bibliotheque ne devient une <code>{@link PresetFlame}</code> (avec son batisseur et sa <code>JList</code>) que lorsqu'elle est demandee par <code>get()</code>,
+ * p.ex. lorsqu'elle est selectionnee. Elle est alors gardee dans la liste, puisqu'elle peut etre modifiee.
+ * <code>{@link LibraryFlameList#name(int)}</code> donne le nom d'une fractale sans la construire : afficher la liste ne coute que la lecture de l'index.</p>
+ * <p>Une fractale dont l'enregistrement n'est pas valide est remplacee dans l'interface par une fractale vide du meme nom, mais reste une fractale de la bibliotheque :
+ * <code>{@link LibraryFlameList#snapshot()}</code> ne la remplace jamais par la fractale vide. Tant qu'elle est dans la liste
+ * (<code>{@link LibraryFlameList#unreadableCount()}</code>), la liste ne doit pas etre enregistree : les modifications de la fractale vide, son nom compris,
+ * sont affichees mais ne peuvent pas l'etre.</p>
+ */
+class LibraryFlameList extends AbstractList<PresetFlame> {
+	private final FlameLibrary library;
+	/**
+	 * Pour chaque fractale, son numero dans la bibliotheque (<code>Integer</code>) si elle n'a pas encore ete construite, la <code>PresetFlame</code> sinon,
+	 * ou un <code>Unreadable</code> si son enregistrement n'a pas pu etre decode.
+	 */
+	private final List<Object> entries;
+	private final LoadObserver observer;
+
+	/**
+	 * Construit la liste des fractales de la bibliotheque donnee.
+	 * @param library la bibliotheque.
+	 * @param observer l'observateur averti de chaque fractale construite, p.ex. pour lui ajouter des observateurs.
+	 */
+	LibraryFlameList(FlameLibrary library, LoadObserver observer) {
+		this.library = library;
+		this.observer = observer;
+		entries = new ArrayList<Object>(library.size());
+		for(int i=0; i<library.size(); i++) {
+			entries.add(i);
+		}
+	}
+
+	/**
+	 * Retourne la fractale d'index donne, en la construisant au premier appel. <br />
+	 * Si son enregistrement n'est pas valide, l'observateur en est averti et une fractale vide du meme nom est retournee a sa place ; 
+	 * l'enregistrement d'origine reste celui de la liste.
+	 */
+	@Override
+	public PresetFlame get(int index) {
+		Object entry = entries.get(index);
+		if(entry instanceof PresetFlame)
+			return (PresetFlame) entry;
+		if(entry instanceof Unreadable)
+			return ((Unreadable) entry).placeholder;
+		int i = (Integer) entry;
+		PresetFlame flame;
+		try {
+			flame = new PresetFlame(library.document(i));
+		} catch(IOException e) {
+			Unreadable unreadable = new Unreadable(i, PresetFlame.newEmptyFlame(library.name(i)));
+			entries.set(index, unreadable);
+			observer.loaded(unreadable.placeholder);
+			observer.failed(library.name(i), e);
+			return unreadable.placeholder;
+		}
+		observer.loaded(flame);
+		entries.set(index, flame);
+		return flame;
+	}
+	
+	/**
+	 * Retourne le nombre de fractales de la liste dont l'enregistrement n'a pas pu etre decode.
+	 * @return le nombre de fractales illisibles.
+	 */
+	int unreadableCount() {
+		int count = 0;
+		for(Object entry : entries) {
+			if(entry instanceof Unreadable)
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Retourne le nom de la fractale d'index donne, sans la construire. <br />
+	 * Pour une fractale illisible, c'est le nom actuel de la fractale vide affichee a sa place, qui peut avoir ete renommee.
+	 * @param index l'index de la fractale.
+	 * @return le nom de la fractale.
+	 */
+	String name(int index) {
+		Object entry = entries.get(index);
+		if(entry instanceof PresetFlame)
+			return ((PresetFlame) entry).getName();
+		if(entry instanceof Unreadable)
+			return ((Unreadable) entry).placeholder.getName();
+		return library.name((Integer) entry);
+	}
+
+	/**
+	 * Retourne un instantane de la liste, sous forme de documents : l'etat actuel des fractales construites, et les fractales de la bibliotheque pour les autres. <br />
+	 * Seules les fractales construites sont copiees ici ; les autres, y compris les fractales illisibles, sont decodees lorsque l'instantane est lu, p.ex. par le fil d'enregistrement
+	 * (<code>{@link UncheckedIOException}</code> si leur enregistrement n'est pas valide, ce qui fait echouer l'enregistrement sans toucher au fichier).
+	 * @return l'instantane, non modifiable.
+	 */
+	List<FlameDocument> snapshot() {
+		final Object[] items = new Object[entries.size()];
+		for(int i=0; i<items.length; i++) {
+			Object entry = entries.get(i);
+			items[i] = entry instanceof PresetFlame ? ((PresetFlame) entry).toDocument() : libraryIndex(entry);
+		}
+		return new AbstractList<FlameDocument>() {
+			@Override
+			public FlameDocument get(int index) {
+				if(items[index] instanceof FlameDocument)
+					return (FlameDocument) items[index];
+				try {
+					return library.document((Integer) items[index]);
+				} catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			@Override
+			public int size() {
+				return items.length;
+			}
+		};
+	}
+
+	@Override
+	public int size() {
+		return entries.size();
+	}
+
+	@Override
+	public void add(int index, PresetFlame flame) {
+		entries.add(index, flame);
+		modCount++;
+	}
+
+	@Override
+	public PresetFlame set(int index, PresetFlame flame) {
+		PresetFlame previous = get(index);
+		entries.set(index, flame);
+		return previous;
+	}
+
+	/**
+	 * Retire la fractale d'index donne, sans la construire.
+	 * @return la fractale retiree, ou <code>null</code> si elle n'avait pas encore ete construite ou n'a pas pu l'etre.
+	 */
+	@Override
+	public PresetFlame remove(int index) {
+		Object entry = entries.remove(index);
+		modCount++;
+		return entry instanceof PresetFlame ? (PresetFlame) entry : null;
+	}
+
+	/**
+	 * Retourne le numero dans la bibliotheque d'une entree qui n'est pas une <code>PresetFlame</code>.
+	 */
+	private static int libraryIndex(Object entry) {
+		return entry instanceof Unreadable ? ((Unreadable) entry).libraryIndex : (Integer) entry;
+	}
+	
+	/**
+	 * Une fractale de la bibliotheque qui n'a pas pu etre decodee, et la fractale vide affichee a sa place.
+	 */
+	private static final class Unreadable {
+		final int libraryIndex;
+		final PresetFlame placeholder;
+		
+		Unreadable(int libraryIndex, PresetFlame placeholder) {
+			this.libraryIndex = libraryIndex;
+			this.placeholder = placeholder;
+		}
+	}
+
+	/**
+	 * L'interface <code>LoadObserver</code> est avertie de chaque fractale construite a partir de la bibliotheque, 
+	 * et de chaque fractale qui n'a pas pu l'etre.
+	 */
+	interface LoadObserver {
+		public void loaded(PresetFlame flame);
+		
+		public void failed(String name, IOException e);
+	}
+}
@@ -1,28 +1,47 @@
-package ch.epfl.flamemaker.flame;
+package ch.epfl.flamemaker.gui;
 
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import javax.swing.AbstractListModel;
 import javax.swing.JList;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 
 import ch.epfl.flamemaker.color.InterpolatedPalette;
 import ch.epfl.flamemaker.color.Palette;
+import ch.epfl.flamemaker.flame.Flame;
+import ch.epfl.flamemaker.flame.FlameDocument;
+import ch.epfl.flamemaker.flame.FlameTransformation;
+import ch.epfl.flamemaker.flame.ObservableFlameBuilder;
 import ch.epfl.flamemaker.geometry2d.AffineTransformation;
 import ch.epfl.flamemaker.geometry2d.Point;
 import ch.epfl.flamemaker.geometry2d.Rectangle;
 
+/**
+ * <p>La classe <code>PresetFlame</code> est une fractale de la liste de l'interface graphique : 
+ * elle ajoute a un <code>{@link FlameDocument}</code> un batisseur observable et le modele de la liste de ses transformations.</p>
+ * @see PresetFlame#toDocument()
+ */
 public class PresetFlame implements Serializable{
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = 4457511530685761285L;
+	// Les modifications faites dans les 30 ms qui suivent une premiere modification (p.ex. des clics repetes) ne provoquent qu'un seul nouveau calcul
+	private static final long COALESCING_DELAY = 30;
+	private static final Executor SWING_EXECUTOR = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			SwingUtilities.invokeLater(command);
+		}
+	};
 	private Set<TransfoListObserver> observers;
 	private String name;
 	private ObservableFlameBuilder flameBuilder;
@@ -30,11 +49,15 @@ public class PresetFlame implements Serializable{
 	private Palette pal;
 	private JList<String> listTransfos;
 	private int selectedTransformationIndex;
+	// Le dernier document construit, et la version du batisseur qu'il decrit
+	private transient FlameDocument document;
+	private transient long documentVersion;
 	
 	public PresetFlame(String name, List<FlameTransformation> flameTransfoList, Rectangle frame, Palette pal) {
 		observers = new HashSet<TransfoListObserver>();
 		this.name = name;
 		flameBuilder = new ObservableFlameBuilder(new Flame(flameTransfoList));
+		flameBuilder.setCoalescingDelay(COALESCING_DELAY, SWING_EXECUTOR);
 		this.frame = frame;
 		this.pal = pal;
 		listTransfos = new JList<String>(new TransformationsListModel());
@@ -50,6 +73,14 @@ public class PresetFlame implements Serializable{
 		});
 	}
 	
+	/**
+	 * Construit la fractale editable decrite par le document donne.
+	 * @param document le document.
+	 */
+	public PresetFlame(FlameDocument document) {
+		this(document.getName(), document.getTransformations(), document.getFrame(), document.getPalette());
+	}
+	
 	public void addObserver(TransfoListObserver o) {
 		observers.add(o);
 	}
@@ -76,6 +107,19 @@ public class PresetFlame implements Serializable{
 		return new PresetFlame(name, list, new Rectangle(new Point(0, 0), 5, 5), InterpolatedPalette.generateRGBPal());
 	}
 	
+	/**
+	 * Retourne l'etat actuel de la fractale sous forme de document, independant de Swing. <br />
+	 * Le document est garde tant que la fractale et son nom ne changent pas : p.ex. chaque enregistrement automatique ne reconstruit que les fractales modifiees.
+	 * @return le document.
+	 */
+	public FlameDocument toDocument() {
+		if(document == null || documentVersion != flameBuilder.version() || !document.getName().equals(name)) {
+			document = new FlameDocument(name, flameBuilder.getTransfoListCopy(), frame, pal);
+			documentVersion = flameBuilder.version();
+		}
+		return document;
+	}
+	
 	public String getName() {
 		return name;
 	}